@@ -30,7 +30,7 @@ CREATE TABLE `attributevalues`  (
   `created_on` datetime(0) NULL DEFAULT NULL,
   `updated_on` timestamp(0) NULL DEFAULT NULL ON UPDATE CURRENT_TIMESTAMP(0),
   PRIMARY KEY (`id`) USING BTREE,
-  INDEX `node_id`(`node_id`) USING BTREE,
+  UNIQUE INDEX `node_id_attribute_id`(`node_id`, `attribute_id`) USING BTREE,
   INDEX `attribute_id`(`attribute_id`) USING BTREE,
   CONSTRAINT `attributevalues_ibfk_1` FOREIGN KEY (`attribute_id`) REFERENCES `attributes` (`id`) ON DELETE CASCADE ON UPDATE CASCADE,
   CONSTRAINT `attributevalues_ibfk_2` FOREIGN KEY (`node_id`) REFERENCES `nodes` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
@@ -181,7 +181,7 @@ CREATE TABLE `similarities`  (
   `created_on` datetime(0) NULL DEFAULT NULL,
   `updated_on` timestamp(0) NULL DEFAULT NULL ON UPDATE CURRENT_TIMESTAMP(0),
   PRIMARY KEY (`id`) USING BTREE,
-  INDEX `node_a_id`(`node_a_id`) USING BTREE,
+  UNIQUE INDEX `node_a_id_node_b_id`(`node_a_id`, `node_b_id`) USING BTREE,
   INDEX `node_b_id`(`node_b_id`) USING BTREE,
   CONSTRAINT `similarities_ibfk_1` FOREIGN KEY (`node_a_id`) REFERENCES `nodes` (`id`) ON DELETE CASCADE ON UPDATE CASCADE,
   CONSTRAINT `similarities_ibfk_2` FOREIGN KEY (`node_b_id`) REFERENCES `nodes` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
@@ -0,0 +1,24 @@
+-- ----------------------------
+-- Upgrades an existing Buntata database to the unique keys of buntata_template.sql. Run it once, with the server stopped.
+-- Duplicate rows are removed first, the one with the lowest id is kept.
+-- ----------------------------
+
+-- ----------------------------
+-- Unique node pairs for similarities
+-- ----------------------------
+DELETE duplicate FROM `similarities` duplicate
+  INNER JOIN `similarities` original ON original.`node_a_id` = duplicate.`node_a_id` AND original.`node_b_id` = duplicate.`node_b_id` AND original.`id` < duplicate.`id`;
+
+ALTER TABLE `similarities`
+  DROP INDEX `node_a_id`,
+  ADD UNIQUE INDEX `node_a_id_node_b_id`(`node_a_id`, `node_b_id`) USING BTREE;
+
+-- ----------------------------
+-- One value per node and attribute for attributevalues
+-- ----------------------------
+DELETE duplicate FROM `attributevalues` duplicate
+  INNER JOIN `attributevalues` original ON original.`node_id` = duplicate.`node_id` AND original.`attribute_id` = duplicate.`attribute_id` AND original.`id` < duplicate.`id`;
+
+ALTER TABLE `attributevalues`
+  DROP INDEX `node_id`,
+  ADD UNIQUE INDEX `node_id_attribute_id`(`node_id`, `attribute_id`) USING BTREE;
@@ -65,6 +65,29 @@ public class AttributeDAO extends WriterDAO<BuntataAttribute>
 		return null;
 	}
 
+	public Map<Long, BuntataAttribute> getByIds(Collection<Long> ids)
+	{
+		Map<Long, BuntataAttribute> result = new HashMap<>();
+
+		for (List<Long> chunk : DatabaseUtils.partition(ids))
+		{
+			try
+			{
+				new DatabaseObjectQuery<BuntataAttribute>("SELECT * FROM attributes WHERE id IN (" + DatabaseUtils.getFormattedPlaceholder(chunk.size()) + ")")
+					.setLongs(chunk)
+					.run()
+					.getObjects(Parser.Inst.get())
+					.forEach(a -> result.put(a.getId(), a));
+			}
+			catch (DatabaseException e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		return result;
+	}
+
 	@Override
 	protected DatabaseObjectWriter<BuntataAttribute> getWriter()
 	{
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.data;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import jhi.buntata.resource.*;
+import jhi.database.server.query.*;
+import jhi.database.shared.exception.*;
+
+/**
+ * {@link AttributeRegistry} keeps the ids of all {@link BuntataAttribute}s by name in memory, so that attribute values can be written without
+ * looking up their attribute first. The registry is loaded at startup, attributes that are added through {@link #getOrAdd(BuntataAttribute)}
+ * are registered as they're added. Names that aren't known are looked up in the database before they're added.
+ *
+ * @author Sebastian Raubach
+ */
+public class AttributeRegistry
+{
+	private final AttributeDAO dao = new AttributeDAO();
+
+	private final ConcurrentMap<String, Long> byName = new ConcurrentHashMap<>();
+
+	public static final class Inst
+	{
+		/**
+		 * {@link InstanceHolder} is loaded on the first execution of {@link Inst#get()} or the first access to {@link InstanceHolder#INSTANCE},
+		 * not before.
+		 * <p/>
+		 * This solution (<a href= "http://en.wikipedia.org/wiki/Initialization_on_demand_holder_idiom" >Initialization-on-demand holder
+		 * idiom</a>) is thread-safe without requiring special language constructs (i.e. <code>volatile</code> or <code>synchronized</code>).
+		 *
+		 * @author Sebastian Raubach
+		 */
+		private static final class InstanceHolder
+		{
+			private static final AttributeRegistry INSTANCE = new AttributeRegistry();
+		}
+
+		public static AttributeRegistry get()
+		{
+			return InstanceHolder.INSTANCE;
+		}
+	}
+
+	private AttributeRegistry()
+	{
+	}
+
+	/**
+	 * (Re-)loads all {@link BuntataAttribute}s from the database.
+	 */
+	public synchronized void rebuild()
+	{
+		try
+		{
+			List<BuntataAttribute> attributes = new DatabaseObjectQuery<BuntataAttribute>("SELECT * FROM attributes")
+				.run()
+				.getObjects(AttributeDAO.Parser.Inst.get());
+
+			byName.clear();
+
+			for (BuntataAttribute attribute : attributes)
+				byName.putIfAbsent(attribute.getName(), attribute.getId());
+		}
+		catch (DatabaseException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns the id of the {@link BuntataAttribute} with the given name.
+	 *
+	 * @param name The name of the {@link BuntataAttribute}
+	 * @return The id or <code>null</code> if there is no such attribute
+	 */
+	public Long getId(String name)
+	{
+		Long id = byName.get(name);
+
+		if (id == null)
+		{
+			// The database compares names case-insensitively, so the attribute may exist under a slightly different name
+			BuntataAttribute existing = dao.getByName(name);
+
+			if (existing != null)
+			{
+				id = existing.getId();
+				byName.put(name, id);
+			}
+		}
+
+		return id;
+	}
+
+	/**
+	 * Returns the id of the {@link BuntataAttribute} with the name of the given one. If there is no such attribute, the given one is added.
+	 *
+	 * @param attribute The {@link BuntataAttribute}
+	 * @return The id of the {@link BuntataAttribute} or <code>null</code> if it can't be added
+	 */
+	public Long getOrAdd(BuntataAttribute attribute)
+	{
+		Long id = byName.get(attribute.getName());
+
+		if (id != null)
+			return id;
+
+		// Only one thread adds attributes, so that the same name isn't added twice
+		synchronized (this)
+		{
+			id = getId(attribute.getName());
+
+			if (id == null)
+			{
+				id = dao.add(attribute);
+
+				if (id != null)
+					byName.put(attribute.getName(), id);
+			}
+
+			return id;
+		}
+	}
+
+	/**
+	 * Adds the given {@link BuntataAttribute}s and runs the given {@link WriterDAO.Transaction} in a single transaction, so that the attributes
+	 * are only added if the transaction succeeds. The ids are set on the attributes (also on the ones that have been added by someone else in
+	 * the meantime), the attributes are registered once the transaction has been committed.
+	 *
+	 * @param attributes  The {@link BuntataAttribute}s to add
+	 * @param transaction The {@link WriterDAO.Transaction} that uses the attributes
+	 * @param <R>         The type of the result
+	 * @return The result of the {@link WriterDAO.Transaction} or <code>null</code> if it failed
+	 */
+	public synchronized <R> R addAll(Collection<BuntataAttribute> attributes, WriterDAO.Transaction<R> transaction)
+	{
+		List<BuntataAttribute> missing = new ArrayList<>();
+
+		for (BuntataAttribute attribute : attributes)
+		{
+			Long id = getId(attribute.getName());
+
+			if (id != null)
+				attribute.setId(id);
+			else
+				missing.add(attribute);
+		}
+
+		R result = WriterDAO.inTransaction(database ->
+		{
+			dao.addAll(missing, database);
+			return transaction.run(database);
+		});
+
+		if (result != null)
+			missing.forEach(a -> byName.put(a.getName(), a.getId()));
+
+		return result;
+	}
+}
@@ -31,6 +31,11 @@ import jhi.database.shared.util.*;
  */
 public class AttributeValueDAO extends WriterDAO<BuntataAttributeValue>
 {
+	/** Relies on the unique constraint on <code>(node_id, attribute_id)</code> */
+	private static final String UPSERT = "INSERT INTO `attributevalues` (`node_id`, `attribute_id`, `value`, `created_on`) VALUES (?, ?, ?, NOW()) ON DUPLICATE KEY UPDATE `value` = VALUES(`value`), `id` = LAST_INSERT_ID(`id`)";
+
+	private final AttributeDAO attributeDao = new AttributeDAO();
+
 	public List<BuntataAttributeValue> getAllForNode(long id)
 	{
 		try
@@ -48,6 +53,49 @@ public class AttributeValueDAO extends WriterDAO<BuntataAttributeValue>
 		return new ArrayList<>();
 	}
 
+	/**
+	 * Returns the {@link BuntataAttributeValue}s of all the given {@link BuntataNode} ids grouped by node id. The referenced {@link
+	 * BuntataAttribute}s are loaded once per chunk instead of once per value.
+	 *
+	 * @param ids The {@link BuntataNode} ids
+	 * @return The {@link BuntataAttributeValue}s grouped by node id
+	 */
+	public Map<Long, List<BuntataAttributeValue>> getAllForNodes(Collection<Long> ids)
+	{
+		Map<Long, List<BuntataAttributeValue>> result = new HashMap<>();
+
+		for (Long id : ids)
+			result.put(id, new ArrayList<>());
+
+		for (List<Long> chunk : DatabaseUtils.partition(ids))
+		{
+			try
+			{
+				List<BuntataAttributeValue> values = new DatabaseObjectQuery<BuntataAttributeValue>("SELECT * FROM attributevalues WHERE node_id IN (" + DatabaseUtils.getFormattedPlaceholder(chunk.size()) + ")")
+					.setLongs(chunk)
+					.run()
+					.getObjects(Parser.Inst.get(), false);
+
+				Set<Long> attributeIds = new HashSet<>();
+				values.forEach(v -> attributeIds.add(v.getAttributeId()));
+
+				Map<Long, BuntataAttribute> attributes = attributeDao.getByIds(attributeIds);
+
+				for (BuntataAttributeValue value : values)
+				{
+					value.setAttribute(attributes.get(value.getAttributeId()));
+					result.get(value.getNodeId()).add(value);
+				}
+			}
+			catch (DatabaseException e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		return result;
+	}
+
 	@Override
 	protected DatabaseObjectWriter<BuntataAttributeValue> getWriter()
 	{
@@ -121,6 +169,76 @@ public class AttributeValueDAO extends WriterDAO<BuntataAttributeValue>
 		}
 	}
 
+	/**
+	 * Sets the value of the given {@link BuntataAttributeValue}'s attribute for its node, i.e. adds it or replaces the existing value, in a single
+	 * statement.
+	 *
+	 * @param av The {@link BuntataAttributeValue}, needs its node and attribute id to be set
+	 * @return The id of the new or existing {@link BuntataAttributeValue} or <code>null</code> if writing failed
+	 */
+	public Long upsert(BuntataAttributeValue av)
+	{
+		try
+		{
+			// LAST_INSERT_ID(id) makes the id of an updated row the generated key
+			List<Long> ids = new ValueQuery(UPSERT)
+				.setLong(av.getNodeId())
+				.setLong(av.getAttributeId())
+				.setString(av.getValue())
+				.execute();
+
+			// An update that doesn't change the value affects no rows, so there's no generated key either
+			if (ids.size() > 0)
+			{
+				av.setId(ids.get(0));
+			}
+			else
+			{
+				av.setId(new ValueQuery("SELECT id FROM attributevalues WHERE node_id = ? AND attribute_id = ?")
+					.setLong(av.getNodeId())
+					.setLong(av.getAttributeId())
+					.run(DatabaseObject.ID)
+					.getLong());
+			}
+
+			return av.getId();
+		}
+		catch (DatabaseException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Sets the values of the given attributes for the given {@link BuntataNode} in a single transaction. Attributes of the node that aren't part
+	 * of the map are left alone.
+	 *
+	 * @param nodeId The {@link BuntataNode} id
+	 * @param values The values by attribute id
+	 * @return <code>true</code> if all values have been written
+	 */
+	public boolean upsertAll(Long nodeId, Map<Long, String> values)
+	{
+		Boolean result = inTransaction(database ->
+		{
+			DatabaseStatement stmt = database.prepareStatement(UPSERT);
+
+			for (Map.Entry<Long, String> value : values.entrySet())
+			{
+				stmt.setLong(1, nodeId);
+				stmt.setLong(2, value.getKey());
+				stmt.setString(3, value.getValue());
+				stmt.addBatch();
+			}
+
+			stmt.executeBatch();
+			return true;
+		});
+
+		return result != null && result;
+	}
+
 	public static class Writer extends DatabaseObjectWriter<BuntataAttributeValue>
 	{
 		public static final class Inst
@@ -17,12 +17,17 @@
 package jhi.buntata.data;
 
 import java.sql.*;
+import java.util.*;
+import java.util.stream.*;
 
 /**
  * @author Sebastian Raubach
  */
 class DatabaseUtils
 {
+	/** The maximal number of ids that are sent to the database in a single <code>IN (...)</code> clause */
+	static final int MAX_IN_CLAUSE_SIZE = 1000;
+
 	static PreparedStatement getStatement(Connection con, String query, Object... bits) throws SQLException
 	{
 		PreparedStatement stmt = con.prepareStatement(query);
@@ -36,4 +41,37 @@ class DatabaseUtils
 
 		return stmt;
 	}
+
+	/**
+	 * Creates an SQL placeholder of the given size, e.g. passing 4 will return <code>"?, ?, ?, ?</code>
+	 *
+	 * @param size The number of placeholder items
+	 * @return The generated String
+	 */
+	static String getFormattedPlaceholder(int size)
+	{
+		if (size < 1)
+			return "";
+
+		return IntStream.range(0, size)
+						.mapToObj(i -> "?")
+						.collect(Collectors.joining(", "));
+	}
+
+	/**
+	 * Splits the given ids into chunks of at most {@link #MAX_IN_CLAUSE_SIZE} elements to keep the size of <code>IN (...)</code> clauses bounded.
+	 *
+	 * @param ids The ids to split
+	 * @return The chunks
+	 */
+	static List<List<Long>> partition(Collection<Long> ids)
+	{
+		List<Long> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+		List<List<Long>> result = new ArrayList<>();
+
+		for (int i = 0; i < distinct.size(); i += MAX_IN_CLAUSE_SIZE)
+			result.add(distinct.subList(i, Math.min(i + MAX_IN_CLAUSE_SIZE, distinct.size())));
+
+		return result;
+	}
 }
@@ -86,6 +86,80 @@ public class DatasourceDAO extends WriterDAO<BuntataDatasource>
 		return null;
 	}
 
+	/**
+	 * Returns the ids of all {@link BuntataDatasource}s the given {@link BuntataMedia} is linked to and whose size it contributes to, i.e. data
+	 * sources in which no other media object refers to the same file.
+	 *
+	 * @param media The {@link BuntataMedia}
+	 * @return The ids of the {@link BuntataDatasource}s
+	 */
+	public List<Long> getIdsForMediaFile(BuntataMedia media)
+	{
+		try
+		{
+			return new ValueQuery("SELECT DISTINCT nodes.datasource_id FROM nodes INNER JOIN nodemedia ON nodemedia.node_id = nodes.id WHERE nodemedia.media_id = ? AND NOT EXISTS (SELECT 1 FROM media INNER JOIN nodemedia AS other ON other.media_id = media.id INNER JOIN nodes AS n ON n.id = other.node_id WHERE n.datasource_id = nodes.datasource_id AND media.id <> ? AND media.internal_link = ?)")
+				.setLong(media.getId())
+				.setLong(media.getId())
+				.setString(media.getInternalLink())
+				.run(BuntataNode.FIELD_DATASOURCE_ID)
+				.getLongs();
+		}
+		catch (DatabaseException e)
+		{
+			e.printStackTrace();
+		}
+
+		return new ArrayList<>();
+	}
+
+	/**
+	 * Returns the change watermark of the {@link BuntataDatasource} with the given id. The watermark consists of the row count, the maximal id and
+	 * the latest creation and update dates of all the tables that end up in the export. It changes whenever any row is added, changed or
+	 * removed, even if the datasource itself isn't touched.
+	 *
+	 * @param id The id of the {@link BuntataDatasource}
+	 * @return The change watermark or <code>null</code> if it can't be determined
+	 */
+	public String getChangeWatermark(Long id)
+	{
+		String inDatasource = "IN (SELECT nodes.id FROM nodes WHERE nodes.datasource_id = ?)";
+
+		try
+		{
+			return new ValueQuery("SELECT CONCAT_WS('|', "
+				+ getWatermarkPart("datasources", "x.id = ?") + ", "
+				+ getWatermarkPart("nodes", "x.datasource_id = ?") + ", "
+				+ getWatermarkPart("attributevalues", "x.node_id " + inDatasource) + ", "
+				+ getWatermarkPart("attributes", "x.id IN (SELECT attributevalues.attribute_id FROM attributevalues WHERE attributevalues.node_id " + inDatasource + ")") + ", "
+				+ getWatermarkPart("nodemedia", "x.node_id " + inDatasource) + ", "
+				+ getWatermarkPart("media", "x.id IN (SELECT nodemedia.media_id FROM nodemedia WHERE nodemedia.node_id " + inDatasource + ")") + ", "
+				+ getWatermarkPart("relationships", "x.parent " + inDatasource) + ", "
+				+ getWatermarkPart("similarities", "x.node_a_id " + inDatasource)
+				+ ") AS watermark")
+				.setLong(id)
+				.setLong(id)
+				.setLong(id)
+				.setLong(id)
+				.setLong(id)
+				.setLong(id)
+				.setLong(id)
+				.setLong(id)
+				.run("watermark")
+				.getString();
+		}
+		catch (DatabaseException e)
+		{
+			e.printStackTrace();
+		}
+
+		return null;
+	}
+
+	static String getWatermarkPart(String table, String condition)
+	{
+		return "(SELECT CONCAT_WS(',', COUNT(*), IFNULL(MAX(x.id), '-'), IFNULL(MAX(x.created_on), '-'), IFNULL(MAX(x.updated_on), '-')) FROM " + table + " x WHERE " + condition + ")";
+	}
+
 	public void updateIcon(BuntataDatasource datasource)
 	{
 		try
@@ -54,6 +54,57 @@ public class MediaDAO extends WriterDAO<BuntataMedia>
 		return null;
 	}
 
+	/**
+	 * Returns the {@link BuntataMedia} with the given ids.
+	 *
+	 * @param ids The {@link BuntataMedia} ids
+	 * @return The {@link BuntataMedia} by id
+	 */
+	public Map<Long, BuntataMedia> getByIds(Collection<Long> ids)
+	{
+		Map<Long, BuntataMedia> result = new HashMap<>();
+
+		for (List<Long> chunk : DatabaseUtils.partition(ids))
+		{
+			try
+			{
+				new DatabaseObjectQuery<BuntataMedia>("SELECT * FROM media WHERE id IN (" + DatabaseUtils.getFormattedPlaceholder(chunk.size()) + ")")
+					.setLongs(chunk)
+					.run()
+					.getObjects(Parser.Inst.get())
+					.forEach(m -> result.put(m.getId(), m));
+			}
+			catch (DatabaseException e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		return result;
+	}
+
+	public List<BuntataMedia> getAllForType(String mediaTypeName)
+	{
+		Long mediaTypeId = MediaTypeRegistry.Inst.get().getId(mediaTypeName);
+
+		if (mediaTypeId == null)
+			return new ArrayList<>();
+
+		try
+		{
+			return new DatabaseObjectQuery<BuntataMedia>("SELECT * FROM media WHERE mediatype_id = ?")
+				.setLong(mediaTypeId)
+				.run()
+				.getObjects(Parser.Inst.get());
+		}
+		catch (DatabaseException e)
+		{
+			e.printStackTrace();
+		}
+
+		return new ArrayList<>();
+	}
+
 	public Map<String, List<BuntataMedia>> getAllForNode(Long id, boolean includePath)
 	{
 		Map<String, List<BuntataMedia>> result = new HashMap<>();
@@ -63,24 +114,129 @@ public class MediaDAO extends WriterDAO<BuntataMedia>
 
 		try
 		{
-			result.get(BuntataMediaType.TYPE_IMAGE).addAll(new DatabaseObjectQuery<BuntataMedia>("SELECT media.* FROM media LEFT JOIN mediatypes ON mediatypes.id = media.mediatype_id WHERE mediatypes.name = ? AND EXISTS (SELECT 1 FROM nodemedia WHERE nodemedia.media_id = media.id AND nodemedia.node_id = ?)")
-				.setString(BuntataMediaType.TYPE_IMAGE)
+			// Group by the media type name in memory rather than joining the media types
+			List<BuntataMedia> media = new DatabaseObjectQuery<BuntataMedia>("SELECT * FROM media WHERE EXISTS (SELECT 1 FROM nodemedia WHERE nodemedia.media_id = media.id AND nodemedia.node_id = ?)")
 				.setLong(id)
 				.run()
-				.getObjects(Parser.Inst.get(), includePath));
+				.getObjects(Parser.Inst.get(), includePath);
+
+			for (BuntataMedia m : media)
+			{
+				List<BuntataMedia> list = result.get(MediaTypeRegistry.Inst.get().getName(m.getMediaTypeId()));
+
+				if (list != null)
+					list.add(m);
+			}
 		}
 		catch (DatabaseException e)
 		{
 			e.printStackTrace();
 		}
 
+		return result;
+	}
+
+	/**
+	 * Returns the {@link BuntataMedia} of all the given {@link BuntataNode} ids grouped by node id and {@link BuntataMediaType} name. This uses one
+	 * query per chunk of node ids rather than two queries per node.
+	 *
+	 * @param ids         The {@link BuntataNode} ids
+	 * @param includePath Should the path be included?
+	 * @return The {@link BuntataMedia} grouped by node id and media type name
+	 */
+	public Map<Long, Map<String, List<BuntataMedia>>> getAllForNodes(Collection<Long> ids, boolean includePath)
+	{
+		Map<Long, Map<String, List<BuntataMedia>>> result = new HashMap<>();
+
+		for (Long id : ids)
+		{
+			Map<String, List<BuntataMedia>> media = new HashMap<>();
+			media.put(BuntataMediaType.TYPE_IMAGE, new ArrayList<>());
+			media.put(BuntataMediaType.TYPE_VIDEO, new ArrayList<>());
+			result.put(id, media);
+		}
+
+		Set<String> seen = new HashSet<>();
+
+		DatabaseObjectParser<BuntataMedia> parser = new DatabaseObjectParser<BuntataMedia>()
+		{
+			@Override
+			public BuntataMedia parse(DatabaseResult rs, boolean includeForeign)
+				throws DatabaseException
+			{
+				BuntataMedia media = Parser.Inst.get().parse(rs, includeForeign);
+
+				Long nodeId = rs.getLong("nodemedia_node_id");
+				List<BuntataMedia> list = result.get(nodeId).get(MediaTypeRegistry.Inst.get().getName(media.getMediaTypeId()));
+
+				// Only keep image and video media and ignore duplicate node-media links
+				if (list != null && seen.add(nodeId + "-" + media.getId()))
+					list.add(media);
+
+				return media;
+			}
+		};
+
+		for (List<Long> chunk : DatabaseUtils.partition(ids))
+		{
+			try
+			{
+				new DatabaseObjectQuery<BuntataMedia>("SELECT media.*, nodemedia.node_id AS nodemedia_node_id FROM media INNER JOIN nodemedia ON nodemedia.media_id = media.id WHERE nodemedia.node_id IN (" + DatabaseUtils.getFormattedPlaceholder(chunk.size()) + ")")
+					.setLongs(chunk)
+					.run()
+					.getObjects(parser, includePath);
+			}
+			catch (DatabaseException e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the internal links of all image and video {@link BuntataMedia} grouped by the id of the {@link BuntataDatasource} they belong to and
+	 * the {@link BuntataMediaType} name. This uses a single query for all data sources rather than two queries per node.
+	 *
+	 * @return The internal links grouped by data source id and media type name
+	 */
+	public Map<Long, Map<String, Set<String>>> getInternalLinksByDatasource()
+	{
+		Map<Long, Map<String, Set<String>>> result = new HashMap<>();
+
+		DatabaseObjectParser<BuntataMedia> parser = new DatabaseObjectParser<BuntataMedia>()
+		{
+			@Override
+			public BuntataMedia parse(DatabaseResult rs, boolean includeForeign)
+				throws DatabaseException
+			{
+				BuntataMedia media = new BuntataMedia()
+					.setMediaTypeId(rs.getLong(BuntataMedia.FIELD_MEDIATYPE_ID))
+					.setInternalLink(rs.getString(BuntataMedia.FIELD_INTERNAL_LINK));
+
+				String type = MediaTypeRegistry.Inst.get().getName(media.getMediaTypeId());
+
+				if (BuntataMediaType.TYPE_IMAGE.equals(type) || BuntataMediaType.TYPE_VIDEO.equals(type))
+				{
+					result.computeIfAbsent(rs.getLong(BuntataNode.FIELD_DATASOURCE_ID), k -> new HashMap<>())
+						  .computeIfAbsent(type, k -> new HashSet<>())
+						  .add(media.getInternalLink());
+				}
+
+				return media;
+			}
+		};
+
 		try
 		{
-			result.get(BuntataMediaType.TYPE_VIDEO).addAll(new DatabaseObjectQuery<BuntataMedia>("SELECT media.* FROM media LEFT JOIN mediatypes ON mediatypes.id = media.mediatype_id WHERE mediatypes.name = ? AND EXISTS (SELECT 1 FROM nodemedia WHERE nodemedia.media_id = media.id AND nodemedia.node_id = ?)")
-				.setString(BuntataMediaType.TYPE_VIDEO)
-				.setLong(id)
-				.run()
-				.getObjects(Parser.Inst.get(), includePath));
+			DatabaseObjectQuery.DatabaseObjectStreamer<BuntataMedia> streamer = new DatabaseObjectQuery<BuntataMedia>("SELECT DISTINCT nodes.datasource_id, media.mediatype_id, media.internal_link FROM media INNER JOIN nodemedia ON nodemedia.media_id = media.id INNER JOIN nodes ON nodes.id = nodemedia.node_id WHERE media.internal_link IS NOT NULL")
+				.getStreamer(parser);
+
+			while (streamer.next() != null)
+			{
+				// The parser collects the result
+			}
 		}
 		catch (DatabaseException e)
 		{
@@ -90,6 +246,57 @@ public class MediaDAO extends WriterDAO<BuntataMedia>
 		return result;
 	}
 
+	/**
+	 * Returns the internal links of the image and video files of the given {@link BuntataDatasource}s, i.e. the files that count towards their
+	 * size.
+	 *
+	 * @param datasourceIds The {@link BuntataDatasource} ids
+	 * @return The internal links by data source id
+	 */
+	public Map<Long, Set<String>> getInternalLinksForDatasources(Collection<Long> datasourceIds)
+	{
+		Map<Long, Set<String>> result = new HashMap<>();
+
+		for (Long id : datasourceIds)
+			result.put(id, new HashSet<>());
+
+		DatabaseObjectParser<BuntataMedia> parser = new DatabaseObjectParser<BuntataMedia>()
+		{
+			@Override
+			public BuntataMedia parse(DatabaseResult rs, boolean includeForeign)
+				throws DatabaseException
+			{
+				BuntataMedia media = new BuntataMedia()
+					.setMediaTypeId(rs.getLong(BuntataMedia.FIELD_MEDIATYPE_ID))
+					.setInternalLink(rs.getString(BuntataMedia.FIELD_INTERNAL_LINK));
+
+				String type = MediaTypeRegistry.Inst.get().getName(media.getMediaTypeId());
+
+				if (BuntataMediaType.TYPE_IMAGE.equals(type) || BuntataMediaType.TYPE_VIDEO.equals(type))
+					result.get(rs.getLong(BuntataNode.FIELD_DATASOURCE_ID)).add(media.getInternalLink());
+
+				return media;
+			}
+		};
+
+		for (List<Long> chunk : DatabaseUtils.partition(datasourceIds))
+		{
+			try
+			{
+				new DatabaseObjectQuery<BuntataMedia>("SELECT DISTINCT nodes.datasource_id, media.mediatype_id, media.internal_link FROM media INNER JOIN nodemedia ON nodemedia.media_id = media.id INNER JOIN nodes ON nodes.id = nodemedia.node_id WHERE media.internal_link IS NOT NULL AND nodes.datasource_id IN (" + DatabaseUtils.getFormattedPlaceholder(chunk.size()) + ")")
+					.setLongs(chunk)
+					.run()
+					.getObjects(parser);
+			}
+			catch (DatabaseException e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		return result;
+	}
+
 	public boolean delete(Long id)
 	{
 		try
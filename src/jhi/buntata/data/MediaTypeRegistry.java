@@ -0,0 +1,166 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.data;
+
+import java.util.*;
+
+import jhi.buntata.resource.*;
+import jhi.database.server.query.*;
+import jhi.database.shared.exception.*;
+
+/**
+ * {@link MediaTypeRegistry} keeps all {@link BuntataMediaType}s in memory, so that media type checks don't need a database round trip. There
+ * are only a handful of media types, the registry is loaded on first use and reloaded when an unknown id is requested. Reloads for unknown ids
+ * happen at most once every {@link #RELOAD_INTERVAL_MILLIS}, so that requests with invalid ids can't force a database round trip each.
+ *
+ * @author Sebastian Raubach
+ */
+public class MediaTypeRegistry
+{
+	/** The minimal time between two reloads caused by unknown ids */
+	private static final long RELOAD_INTERVAL_MILLIS = 30000;
+
+	private volatile Map<Long, BuntataMediaType> byId     = null;
+	private volatile Map<String, Long>           byName   = null;
+	private volatile long                        loadedOn = 0;
+
+	public static final class Inst
+	{
+		/**
+		 * {@link InstanceHolder} is loaded on the first execution of {@link Inst#get()} or the first access to {@link InstanceHolder#INSTANCE},
+		 * not before.
+		 * <p/>
+		 * This solution (<a href= "http://en.wikipedia.org/wiki/Initialization_on_demand_holder_idiom" >Initialization-on-demand holder
+		 * idiom</a>) is thread-safe without requiring special language constructs (i.e. <code>volatile</code> or <code>synchronized</code>).
+		 *
+		 * @author Sebastian Raubach
+		 */
+		private static final class InstanceHolder
+		{
+			private static final MediaTypeRegistry INSTANCE = new MediaTypeRegistry();
+		}
+
+		public static MediaTypeRegistry get()
+		{
+			return InstanceHolder.INSTANCE;
+		}
+	}
+
+	private MediaTypeRegistry()
+	{
+	}
+
+	/**
+	 * (Re-)loads all {@link BuntataMediaType}s from the database.
+	 */
+	public synchronized void rebuild()
+	{
+		try
+		{
+			List<BuntataMediaType> types = new DatabaseObjectQuery<BuntataMediaType>("SELECT * FROM mediatypes")
+				.run()
+				.getObjects(MediaTypeDAO.Parser.Inst.get());
+
+			Map<Long, BuntataMediaType> newById = new HashMap<>();
+			Map<String, Long> newByName = new HashMap<>();
+
+			for (BuntataMediaType type : types)
+			{
+				newById.put(type.getId(), type);
+				newByName.put(type.getName(), type.getId());
+			}
+
+			byName = newByName;
+			byId = newById;
+			loadedOn = System.currentTimeMillis();
+		}
+		catch (DatabaseException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns the {@link BuntataMediaType} with the given id.
+	 *
+	 * @param id The id of the {@link BuntataMediaType}
+	 * @return The {@link BuntataMediaType} or <code>null</code> if there is no such media type
+	 */
+	public BuntataMediaType get(Long id)
+	{
+		if (id == null)
+			return null;
+
+		Map<Long, BuntataMediaType> types = byId;
+
+		if (types == null || !types.containsKey(id))
+			reload();
+
+		return byId == null ? null : byId.get(id);
+	}
+
+	/**
+	 * Reloads the {@link BuntataMediaType}s unless they've been loaded within the last {@link #RELOAD_INTERVAL_MILLIS}.
+	 */
+	private synchronized void reload()
+	{
+		// Another thread may have just reloaded while this one was waiting for the lock
+		if (byId != null && System.currentTimeMillis() - loadedOn < RELOAD_INTERVAL_MILLIS)
+			return;
+
+		rebuild();
+	}
+
+	/**
+	 * Returns the id of the {@link BuntataMediaType} with the given name.
+	 *
+	 * @param name The name of the {@link BuntataMediaType}, e.g. {@link BuntataMediaType#TYPE_IMAGE}
+	 * @return The id or <code>null</code> if there is no such media type
+	 */
+	public Long getId(String name)
+	{
+		if (byName == null)
+			reload();
+
+		return byName == null ? null : byName.get(name);
+	}
+
+	/**
+	 * Returns the name of the {@link BuntataMediaType} with the given id.
+	 *
+	 * @param id The id of the {@link BuntataMediaType}
+	 * @return The name or <code>null</code> if there is no such media type
+	 */
+	public String getName(Long id)
+	{
+		BuntataMediaType type = get(id);
+
+		return type == null ? null : type.getName();
+	}
+
+	/**
+	 * Checks whether the given media type id belongs to the {@link BuntataMediaType} with the given name.
+	 *
+	 * @param id   The id of the {@link BuntataMediaType}
+	 * @param name The name of the {@link BuntataMediaType}, e.g. {@link BuntataMediaType#TYPE_IMAGE}
+	 * @return <code>true</code> if the media type id belongs to the media type with the given name
+	 */
+	public boolean is(Long id, String name)
+	{
+		return Objects.equals(getName(id), name);
+	}
+}
@@ -31,6 +31,9 @@ import jhi.database.shared.util.*;
  */
 public class NodeDAO extends WriterDAO<BuntataNode>
 {
+	private final MediaDAO          mediaDao          = new MediaDAO();
+	private final AttributeValueDAO attributeValueDao = new AttributeValueDAO();
+
 	@Override
 	protected DatabaseObjectWriter<BuntataNode> getWriter()
 	{
@@ -41,9 +44,9 @@ public class NodeDAO extends WriterDAO<BuntataNode>
 	{
 		try
 		{
-			return new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes LEFT JOIN datasources ON datasources.id = nodes.datasource_id WHERE datasources.visibility = 1")
+			return loadForeign(new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes LEFT JOIN datasources ON datasources.id = nodes.datasource_id WHERE datasources.visibility = 1")
 				.run()
-				.getObjects(Parser.Inst.get(), true);
+				.getObjects(Parser.Inst.get()));
 		}
 		catch (DatabaseException e)
 		{
@@ -57,10 +60,18 @@ public class NodeDAO extends WriterDAO<BuntataNode>
 	{
 		try
 		{
-			return new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes LEFT JOIN datasources ON datasources.id = nodes.datasource_id WHERE datasources.visibility = 1 AND nodes.id = ?")
+			BuntataNode node = new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes LEFT JOIN datasources ON datasources.id = nodes.datasource_id WHERE datasources.visibility = 1 AND nodes.id = ?")
 				.setLong(id)
 				.run()
-				.getObject(SimilarParser.Inst.get(), true);
+				.getObject(Parser.Inst.get());
+
+			if (node != null)
+			{
+				loadForeign(Collections.singletonList(node));
+				node.setSimilarNodes(getSimilarTo(node.getId()));
+			}
+
+			return node;
 		}
 		catch (DatabaseException e)
 		{
@@ -70,65 +81,112 @@ public class NodeDAO extends WriterDAO<BuntataNode>
 		return null;
 	}
 
-	public List<BuntataNode> getAllForParent(Long nodeParentId)
+	/**
+	 * Checks whether the {@link BuntataNode} with the given id exists, regardless of the visibility of its {@link BuntataDatasource}.
+	 *
+	 * @param id The {@link BuntataNode} id
+	 * @return <code>true</code> if the node exists
+	 */
+	public boolean exists(Long id)
 	{
 		try
 		{
-			return new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes LEFT JOIN datasources ON datasources.id = nodes.datasource_id WHERE datasources.visibility = 1 AND EXISTS (SELECT 1 FROM relationships WHERE relationships.child = nodes.id AND relationships.parent = ?)")
-				.setLong(nodeParentId)
-				.run()
-				.getObjects(Parser.Inst.get(), true);
+			return new ValueQuery("SELECT id FROM nodes WHERE id = ?")
+				.setLong(id)
+				.run(DatabaseObject.ID)
+				.getLong() != null;
 		}
 		catch (DatabaseException e)
 		{
 			e.printStackTrace();
 		}
 
-		return new ArrayList<>();
+		return false;
 	}
 
-	public List<BuntataNode> getAllForDatasourceRoot(Long id)
+	/**
+	 * Returns the {@link BuntataDatasource} ids of the {@link BuntataNode}s with the given ids, regardless of the visibility of the data sources.
+	 *
+	 * @param ids The {@link BuntataNode} ids
+	 * @return The {@link BuntataDatasource} ids by node id
+	 */
+	public Map<Long, Long> getDatasourceIds(Collection<Long> ids)
 	{
-		try
-		{
-			return new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes LEFT JOIN datasources ON datasources.id = nodes.datasource_id WHERE datasources.visibility = 1 AND datasource_id = ? AND NOT EXISTS (SELECT 1 FROM relationships WHERE relationships.child = nodes.id)")
-				.setLong(id)
-				.run()
-				.getObjects(Parser.Inst.get(), true);
-		}
-		catch (DatabaseException e)
+		Map<Long, Long> result = new HashMap<>();
+
+		for (List<Long> chunk : DatabaseUtils.partition(ids))
 		{
-			e.printStackTrace();
+			try
+			{
+				new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes WHERE id IN (" + DatabaseUtils.getFormattedPlaceholder(chunk.size()) + ")")
+					.setLongs(chunk)
+					.run()
+					.getObjects(Parser.Inst.get())
+					.forEach(n -> result.put(n.getId(), n.getDatasourceId()));
+			}
+			catch (DatabaseException e)
+			{
+				e.printStackTrace();
+			}
 		}
 
-		return new ArrayList<>();
+		return result;
+	}
+
+	public List<BuntataNode> getAllForParent(Long nodeParentId)
+	{
+		return getAllForIds(RelationshipIndex.Inst.get().getChildren(nodeParentId));
+	}
+
+	public List<BuntataNode> getAllForDatasourceRoot(Long id)
+	{
+		return getAllForIds(RelationshipIndex.Inst.get().getRoots(id));
 	}
 
 	public List<BuntataNode> getAllForDatasourceLeaf(Long id)
 	{
-		try
-		{
-			return new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes LEFT JOIN datasources ON datasources.id = nodes.datasource_id WHERE datasources.visibility = 1 AND datasource_id = ? AND NOT EXISTS (SELECT 1 FROM relationships WHERE relationships.parent = nodes.id)")
-				.setLong(id)
-				.run()
-				.getObjects(Parser.Inst.get(), true);
-		}
-		catch (DatabaseException e)
+		return getAllForIds(RelationshipIndex.Inst.get().getLeaves(id));
+	}
+
+	/**
+	 * Returns the visible {@link BuntataNode}s with the given ids ordered by id.
+	 *
+	 * @param ids The {@link BuntataNode} ids
+	 * @return The visible {@link BuntataNode}s with the given ids
+	 */
+	public List<BuntataNode> getAllForIds(Collection<Long> ids)
+	{
+		List<Long> sorted = new ArrayList<>(ids);
+		Collections.sort(sorted);
+
+		List<BuntataNode> result = new ArrayList<>();
+
+		for (List<Long> chunk : DatabaseUtils.partition(sorted))
 		{
-			e.printStackTrace();
+			try
+			{
+				result.addAll(new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes LEFT JOIN datasources ON datasources.id = nodes.datasource_id WHERE datasources.visibility = 1 AND nodes.id IN (" + DatabaseUtils.getFormattedPlaceholder(chunk.size()) + ") ORDER BY nodes.id")
+					.setLongs(chunk)
+					.run()
+					.getObjects(Parser.Inst.get()));
+			}
+			catch (DatabaseException e)
+			{
+				e.printStackTrace();
+			}
 		}
 
-		return new ArrayList<>();
+		return loadForeign(result);
 	}
 
 	public List<BuntataNode> getSimilarTo(Long id)
 	{
 		try
 		{
-			return new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes WHERE EXISTS (SELECT 1 FROM similarities WHERE similarities.node_b_id = nodes.id AND similarities.node_a_id = ?)")
+			return loadForeign(new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes WHERE EXISTS (SELECT 1 FROM similarities WHERE similarities.node_b_id = nodes.id AND similarities.node_a_id = ?)")
 				.setLong(id)
 				.run()
-				.getObjects(Parser.Inst.get(), true);
+				.getObjects(Parser.Inst.get()));
 		}
 		catch (DatabaseException e)
 		{
@@ -142,10 +200,10 @@ public class NodeDAO extends WriterDAO<BuntataNode>
 	{
 		try
 		{
-			return new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes LEFT JOIN datasources ON datasources.id = nodes.datasource_id WHERE datasources.visibility = 1 AND datasource_id = ?")
+			return loadForeign(new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes LEFT JOIN datasources ON datasources.id = nodes.datasource_id WHERE datasources.visibility = 1 AND datasource_id = ?")
 				.setLong(id)
 				.run()
-				.getObjects(Parser.Inst.get(), true);
+				.getObjects(Parser.Inst.get()));
 		}
 		catch (DatabaseException e)
 		{
@@ -171,22 +229,59 @@ public class NodeDAO extends WriterDAO<BuntataNode>
 		}
 	}
 
-	public List<BuntataNode> getAllForSearch(Long datasourceId, String searchTerm)
+	/**
+	 * Searches the {@link BuntataNode}s of the given {@link BuntataDatasource} using the {@link NodeSearchIndex}.
+	 *
+	 * @param datasourceId The {@link BuntataDatasource} id
+	 * @param searchTerm   The search term
+	 * @param limit        The maximal number of results
+	 * @return The matching {@link BuntataNode}s, best match first
+	 */
+	public List<BuntataNode> getAllForSearch(Long datasourceId, String searchTerm, int limit)
 	{
-		try
+		List<Long> ids = NodeSearchIndex.Inst.get().search(datasourceId, searchTerm, limit);
+
+		Map<Long, BuntataNode> nodes = new HashMap<>();
+		getAllForIds(ids).forEach(n -> nodes.put(n.getId(), n));
+
+		// Keep the ranking of the search index
+		List<BuntataNode> result = new ArrayList<>();
+		for (Long id : ids)
 		{
-			return new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes WHERE datasource_id = ? AND name LIKE ?")
-				.setLong(datasourceId)
-				.setString("%" + searchTerm + "%")
-				.run()
-				.getObjects(Parser.Inst.get());
+			BuntataNode node = nodes.get(id);
+
+			if (node != null)
+				result.add(node);
 		}
-		catch (DatabaseException e)
+
+		return result;
+	}
+
+	/**
+	 * Loads the {@link BuntataMedia} and {@link BuntataAttributeValue}s of all the given {@link BuntataNode}s using a fixed number of set-based
+	 * queries rather than issuing queries for each individual node.
+	 *
+	 * @param nodes The {@link BuntataNode}s to complete
+	 * @return The same {@link List} of {@link BuntataNode}s
+	 */
+	private List<BuntataNode> loadForeign(List<BuntataNode> nodes)
+	{
+		if (nodes.isEmpty())
+			return nodes;
+
+		List<Long> ids = new ArrayList<>();
+		nodes.forEach(n -> ids.add(n.getId()));
+
+		Map<Long, Map<String, List<BuntataMedia>>> media = mediaDao.getAllForNodes(ids, false);
+		Map<Long, List<BuntataAttributeValue>> values = attributeValueDao.getAllForNodes(ids);
+
+		for (BuntataNode node : nodes)
 		{
-			e.printStackTrace();
+			node.setMedia(media.get(node.getId()))
+				.setAttributeValues(values.get(node.getId()));
 		}
 
-		return new ArrayList<>();
+		return nodes;
 	}
 
 	public static class Writer extends DatabaseObjectWriter<BuntataNode>
@@ -290,62 +385,15 @@ public class NodeDAO extends WriterDAO<BuntataNode>
 			}
 		}
 
-		private static MediaDAO          mediaDao          = new MediaDAO();
-		private static AttributeValueDAO attributeValueDao = new AttributeValueDAO();
-
 		@Override
 		public BuntataNode parse(DatabaseResult rs, boolean includeForeign)
 			throws DatabaseException
 		{
-			BuntataNode node = new BuntataNode(rs.getLong(DatabaseObject.ID), rs.getTimestamp(DatabaseObject.CREATED_ON), rs.getTimestamp(DatabaseObject.UPDATED_ON))
+			// Foreign objects are loaded in bulk by NodeDAO#loadForeign(List) once all rows have been parsed
+			return new BuntataNode(rs.getLong(DatabaseObject.ID), rs.getTimestamp(DatabaseObject.CREATED_ON), rs.getTimestamp(DatabaseObject.UPDATED_ON))
 				.setDatasourceId(rs.getLong(BuntataNode.FIELD_DATASOURCE_ID))
 				.setName(rs.getString(BuntataNode.FIELD_NAME))
 				.setDescription(rs.getString(BuntataNode.FIELD_DESCRIPTION));
-
-			if (includeForeign)
-				node.setMedia(mediaDao.getAllForNode(rs.getLong(BuntataNode.ID), false))
-					.setAttributeValues(attributeValueDao.getAllForNode(rs.getLong(BuntataNode.ID)));
-
-			return node;
-		}
-	}
-
-	public static class SimilarParser extends Parser
-	{
-		public static final class Inst
-		{
-			/**
-			 * {@link InstanceHolder} is loaded on the first execution of {@link Inst#get()} or the first access to {@link InstanceHolder#INSTANCE},
-			 * not before.
-			 * <p/>
-			 * This solution (<a href= "http://en.wikipedia.org/wiki/Initialization_on_demand_holder_idiom" >Initialization-on-demand holder
-			 * idiom</a>) is thread-safe without requiring special language constructs (i.e. <code>volatile</code> or <code>synchronized</code>).
-			 *
-			 * @author Sebastian Raubach
-			 */
-			private static final class InstanceHolder
-			{
-				private static final SimilarParser INSTANCE = new SimilarParser();
-			}
-
-			public static SimilarParser get()
-			{
-				return InstanceHolder.INSTANCE;
-			}
-		}
-
-		private static NodeDAO nodeDao = new NodeDAO();
-
-		@Override
-		public BuntataNode parse(DatabaseResult rs, boolean includeForeign)
-			throws DatabaseException
-		{
-			BuntataNode result = super.parse(rs, includeForeign);
-
-			if (result != null && includeForeign)
-				result.setSimilarNodes(nodeDao.getSimilarTo(rs.getLong(BuntataNode.ID)));
-
-			return result;
 		}
 	}
-}
+}
\ No newline at end of file
@@ -0,0 +1,566 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.data;
+
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+import java.util.regex.*;
+
+import jhi.buntata.data.pool.*;
+import jhi.buntata.resource.*;
+import jhi.database.server.query.*;
+import jhi.database.shared.exception.*;
+
+/**
+ * {@link NodeSearchIndex} is an in-memory inverted index over the names, descriptions and attribute values of all {@link BuntataNode}s, split by
+ * {@link BuntataDatasource}. Terms are kept in a sorted dictionary so that prefix queries are a simple range scan, and node names are additionally
+ * indexed as trigrams to find matches in the middle of a word.
+ * <p/>
+ * Changes made directly in the database or by another server aren't seen by the API, so {@link #refresh()} rebuilds the index whenever the
+ * change watermark of the nodes and attribute values differs from the one of the last build.
+ *
+ * @author Sebastian Raubach
+ */
+public class NodeSearchIndex
+{
+	private static final float WEIGHT_NAME        = 3f;
+	private static final float WEIGHT_ATTRIBUTE   = 2f;
+	private static final float WEIGHT_DESCRIPTION = 1f;
+
+	private static final float FACTOR_EXACT  = 1f;
+	private static final float FACTOR_PREFIX = 0.75f;
+	private static final float FACTOR_INFIX  = 0.5f;
+
+	private static final int     GRAM_SIZE  = 3;
+	private static final Pattern SPLIT      = Pattern.compile("[^\\p{L}\\p{N}]+");
+	private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+	private final    ReadWriteLock              lock             = new ReentrantReadWriteLock();
+	private final    Map<Long, DatasourceIndex> datasources      = new HashMap<>();
+	private final    Map<Long, Long>            nodeToDatasource = new HashMap<>();
+	private volatile boolean                    initialized      = false;
+	/** The change watermark of the nodes and attribute values at the time of the last build */
+	private volatile String                     watermark        = null;
+
+	public static final class Inst
+	{
+		/**
+		 * {@link InstanceHolder} is loaded on the first execution of {@link Inst#get()} or the first access to {@link InstanceHolder#INSTANCE},
+		 * not before.
+		 * <p/>
+		 * This solution (<a href= "http://en.wikipedia.org/wiki/Initialization_on_demand_holder_idiom" >Initialization-on-demand holder
+		 * idiom</a>) is thread-safe without requiring special language constructs (i.e. <code>volatile</code> or <code>synchronized</code>).
+		 *
+		 * @author Sebastian Raubach
+		 */
+		private static final class InstanceHolder
+		{
+			private static final NodeSearchIndex INSTANCE = new NodeSearchIndex();
+		}
+
+		public static NodeSearchIndex get()
+		{
+			return InstanceHolder.INSTANCE;
+		}
+	}
+
+	private NodeSearchIndex()
+	{
+	}
+
+	/**
+	 * (Re-)builds the whole index from the database.
+	 */
+	public void rebuild()
+	{
+		// Taken before reading, so that changes made while the index is built trigger another rebuild
+		String newWatermark = getWatermark();
+
+		Map<Long, Document> documents = new HashMap<>();
+
+		// Streaming all nodes and attribute values holds the connection for a while on large databases
+		try (ConnectionPool.LongRunning longRunning = ConnectionPool.longRunning())
+		{
+			DatabaseObjectQuery.DatabaseObjectStreamer<BuntataNode> nodes = new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes")
+				.getStreamer(NodeDAO.Parser.Inst.get());
+
+			BuntataNode node;
+			while ((node = nodes.next()) != null)
+				documents.put(node.getId(), new Document(node));
+
+			DatabaseObjectQuery.DatabaseObjectStreamer<BuntataAttributeValue> values = new DatabaseObjectQuery<BuntataAttributeValue>("SELECT * FROM attributevalues")
+				.getStreamer(AttributeValueDAO.Parser.Inst.get());
+
+			BuntataAttributeValue value;
+			while ((value = values.next()) != null)
+			{
+				Document document = documents.get(value.getNodeId());
+
+				if (document != null)
+					document.attributeValues.add(value.getValue());
+			}
+		}
+		catch (DatabaseException e)
+		{
+			e.printStackTrace();
+			return;
+		}
+
+		lock.writeLock().lock();
+		try
+		{
+			datasources.clear();
+			nodeToDatasource.clear();
+
+			documents.values().forEach(this::add);
+
+			watermark = newWatermark;
+			initialized = true;
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Rebuilds the index if the nodes or attribute values have changed since the last build, including changes that haven't been made through
+	 * the API.
+	 */
+	public void refresh()
+	{
+		String current = getWatermark();
+
+		if (current != null && !current.equals(watermark))
+			rebuild();
+	}
+
+	/**
+	 * Returns the change watermark of all nodes and attribute values (see {@link DatasourceDAO#getChangeWatermark(Long)}).
+	 *
+	 * @return The change watermark or <code>null</code> if it can't be determined
+	 */
+	private static String getWatermark()
+	{
+		try
+		{
+			return new ValueQuery("SELECT CONCAT_WS('|', "
+				+ DatasourceDAO.getWatermarkPart("nodes", "1 = 1") + ", "
+				+ DatasourceDAO.getWatermarkPart("attributevalues", "1 = 1")
+				+ ") AS watermark")
+				.run("watermark")
+				.getString();
+		}
+		catch (DatabaseException e)
+		{
+			e.printStackTrace();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Re-indexes the {@link BuntataNode} with the given id. Call this whenever the node itself or one of its {@link BuntataAttributeValue}s
+	 * changed.
+	 *
+	 * @param nodeId The {@link BuntataNode} id
+	 */
+	public void reindex(Long nodeId)
+	{
+		if (nodeId != null)
+			reindex(Collections.singletonList(nodeId));
+	}
+
+	/**
+	 * Re-indexes the {@link BuntataNode}s with the given ids using a fixed number of set-based queries. Nodes that no longer exist are removed
+	 * from the index.
+	 *
+	 * @param nodeIds The {@link BuntataNode} ids
+	 */
+	public void reindex(Collection<Long> nodeIds)
+	{
+		if (nodeIds.isEmpty() || !initialized)
+			return;
+
+		Map<Long, Document> documents = new HashMap<>();
+
+		for (List<Long> chunk : DatabaseUtils.partition(nodeIds))
+		{
+			try
+			{
+				// Nodes of invisible data sources are part of the index as well, so don't use the visibility-filtered node queries
+				new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes WHERE id IN (" + DatabaseUtils.getFormattedPlaceholder(chunk.size()) + ")")
+					.setLongs(chunk)
+					.run()
+					.getObjects(NodeDAO.Parser.Inst.get())
+					.forEach(n -> documents.put(n.getId(), new Document(n)));
+			}
+			catch (DatabaseException e)
+			{
+				e.printStackTrace();
+				return;
+			}
+		}
+
+		for (Map.Entry<Long, List<BuntataAttributeValue>> values : new AttributeValueDAO().getAllForNodes(documents.keySet()).entrySet())
+		{
+			Document document = documents.get(values.getKey());
+			values.getValue().forEach(v -> document.attributeValues.add(v.getValue()));
+		}
+
+		lock.writeLock().lock();
+		try
+		{
+			for (Long nodeId : nodeIds)
+			{
+				remove(nodeId);
+
+				Document document = documents.get(nodeId);
+				if (document != null)
+					add(document);
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes all the nodes of the given {@link BuntataDatasource} from the index.
+	 *
+	 * @param datasourceId The {@link BuntataDatasource} id
+	 */
+	public void removeDatasource(Long datasourceId)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			DatasourceIndex index = datasources.remove(datasourceId);
+
+			if (index != null)
+				index.nodeTerms.keySet().forEach(nodeToDatasource::remove);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Searches the {@link BuntataNode}s of the given {@link BuntataDatasource}. Every word of the search term has to match (exactly, as a prefix
+	 * or - for node names - anywhere within a word) for a node to be returned.
+	 *
+	 * @param datasourceId The {@link BuntataDatasource} id
+	 * @param searchTerm   The search term
+	 * @param limit        The maximal number of results
+	 * @return The ids of the matching {@link BuntataNode}s, best match first
+	 */
+	public List<Long> search(Long datasourceId, String searchTerm, int limit)
+	{
+		if (!initialized)
+		{
+			synchronized (this)
+			{
+				if (!initialized)
+					rebuild();
+			}
+		}
+
+		Set<String> tokens = tokenize(searchTerm);
+
+		if (tokens.isEmpty())
+			return new ArrayList<>();
+
+		lock.readLock().lock();
+		try
+		{
+			DatasourceIndex index = datasources.get(datasourceId);
+
+			if (index == null)
+				return new ArrayList<>();
+
+			Map<Long, Float> scores = null;
+
+			for (String token : tokens)
+			{
+				Map<Long, Float> tokenScores = index.score(token);
+
+				if (scores == null)
+				{
+					scores = tokenScores;
+				}
+				else
+				{
+					// All query tokens have to match
+					scores.keySet().retainAll(tokenScores.keySet());
+					for (Map.Entry<Long, Float> entry : scores.entrySet())
+						entry.setValue(entry.getValue() + tokenScores.get(entry.getKey()));
+				}
+
+				if (scores.isEmpty())
+					break;
+			}
+
+			List<Map.Entry<Long, Float>> entries = new ArrayList<>(scores.entrySet());
+			entries.sort((a, b) ->
+			{
+				int result = Float.compare(b.getValue(), a.getValue());
+
+				if (result == 0)
+					result = index.nodeNames.get(a.getKey()).compareTo(index.nodeNames.get(b.getKey()));
+				if (result == 0)
+					result = Long.compare(a.getKey(), b.getKey());
+
+				return result;
+			});
+
+			List<Long> result = new ArrayList<>();
+			for (int i = 0; i < entries.size() && i < limit; i++)
+				result.add(entries.get(i).getKey());
+
+			return result;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds the {@link Document} to the index. The caller has to hold the write lock.
+	 *
+	 * @param document The {@link Document} to add
+	 */
+	private void add(Document document)
+	{
+		nodeToDatasource.put(document.nodeId, document.datasourceId);
+		datasources.computeIfAbsent(document.datasourceId, k -> new DatasourceIndex())
+				   .add(document);
+	}
+
+	/**
+	 * Removes the node with the given id from the index. The caller has to hold the write lock.
+	 *
+	 * @param nodeId The {@link BuntataNode} id
+	 */
+	private void remove(Long nodeId)
+	{
+		Long datasourceId = nodeToDatasource.remove(nodeId);
+
+		if (datasourceId != null)
+		{
+			DatasourceIndex index = datasources.get(datasourceId);
+
+			if (index != null)
+				index.remove(nodeId);
+		}
+	}
+
+	/**
+	 * Splits the given text into normalized tokens: lower case, without diacritics, split on everything that isn't a letter or digit.
+	 *
+	 * @param text The text to tokenize
+	 * @return The distinct tokens in order of appearance
+	 */
+	static Set<String> tokenize(String text)
+	{
+		Set<String> result = new LinkedHashSet<>();
+
+		if (text == null)
+			return result;
+
+		String normalized = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+									  .toLowerCase(Locale.ROOT);
+
+		for (String token : SPLIT.split(normalized))
+		{
+			if (!token.isEmpty())
+				result.add(token);
+		}
+
+		return result;
+	}
+
+	private static Set<String> grams(String token)
+	{
+		Set<String> result = new HashSet<>();
+
+		for (int i = 0; i + GRAM_SIZE <= token.length(); i++)
+			result.add(token.substring(i, i + GRAM_SIZE));
+
+		return result;
+	}
+
+	/**
+	 * The searchable text of a single {@link BuntataNode}.
+	 */
+	private static class Document
+	{
+		private final Long         nodeId;
+		private final Long         datasourceId;
+		private final String       name;
+		private final String       description;
+		private final List<String> attributeValues = new ArrayList<>();
+
+		Document(BuntataNode node)
+		{
+			this.nodeId = node.getId();
+			this.datasourceId = node.getDatasourceId();
+			this.name = node.getName() == null ? "" : node.getName();
+			this.description = node.getDescription();
+		}
+
+		/**
+		 * Returns the tokens of this document mapped to the weight of the most important field they appear in.
+		 *
+		 * @return The tokens mapped to their weight
+		 */
+		Map<String, Float> getTerms()
+		{
+			Map<String, Float> result = new HashMap<>();
+
+			tokenize(description).forEach(t -> result.merge(t, WEIGHT_DESCRIPTION, Math::max));
+			attributeValues.forEach(v -> tokenize(v).forEach(t -> result.merge(t, WEIGHT_ATTRIBUTE, Math::max)));
+			tokenize(name).forEach(t -> result.merge(t, WEIGHT_NAME, Math::max));
+
+			return result;
+		}
+	}
+
+	/**
+	 * The index of a single {@link BuntataDatasource}.
+	 */
+	private static class DatasourceIndex
+	{
+		/** Sorted term dictionary: term to node id to weight */
+		private final TreeMap<String, Map<Long, Float>> postings  = new TreeMap<>();
+		/** Name trigram to node ids */
+		private final Map<String, Set<Long>>            grams     = new HashMap<>();
+		/** Node id to the terms it has been indexed with (used for removal) */
+		private final Map<Long, Set<String>>            nodeTerms = new HashMap<>();
+		/** Node id to its normalized name */
+		private final Map<Long, String>                 nodeNames = new HashMap<>();
+
+		void add(Document document)
+		{
+			Map<String, Float> terms = document.getTerms();
+
+			for (Map.Entry<String, Float> term : terms.entrySet())
+				postings.computeIfAbsent(term.getKey(), k -> new HashMap<>()).put(document.nodeId, term.getValue());
+
+			for (String token : tokenize(document.name))
+			{
+				for (String gram : grams(token))
+					grams.computeIfAbsent(gram, k -> new HashSet<>()).add(document.nodeId);
+			}
+
+			nodeTerms.put(document.nodeId, new HashSet<>(terms.keySet()));
+			nodeNames.put(document.nodeId, String.join(" ", tokenize(document.name)));
+		}
+
+		void remove(Long nodeId)
+		{
+			Set<String> terms = nodeTerms.remove(nodeId);
+			nodeNames.remove(nodeId);
+
+			if (terms != null)
+			{
+				for (String term : terms)
+				{
+					Map<Long, Float> nodes = postings.get(term);
+
+					if (nodes != null)
+					{
+						nodes.remove(nodeId);
+						if (nodes.isEmpty())
+							postings.remove(term);
+					}
+				}
+			}
+
+			if (terms != null)
+			{
+				for (String token : terms)
+				{
+					for (String gram : grams(token))
+					{
+						Set<Long> nodes = grams.get(gram);
+
+						if (nodes != null)
+						{
+							nodes.remove(nodeId);
+							if (nodes.isEmpty())
+								grams.remove(gram);
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Scores all nodes matching the given query token.
+		 *
+		 * @param token The normalized query token
+		 * @return The node ids of all matching nodes mapped to their score
+		 */
+		Map<Long, Float> score(String token)
+		{
+			Map<Long, Float> result = new HashMap<>();
+
+			// Exact and prefix matches are a range scan over the sorted dictionary
+			for (Map.Entry<String, Map<Long, Float>> term : postings.subMap(token, true, token + Character.MAX_VALUE, true).entrySet())
+			{
+				float factor = term.getKey().equals(token) ? FACTOR_EXACT : FACTOR_PREFIX;
+
+				for (Map.Entry<Long, Float> node : term.getValue().entrySet())
+					result.merge(node.getKey(), node.getValue() * factor, Math::max);
+			}
+
+			// Matches within a word of the name are found via the trigrams and then verified
+			if (token.length() >= GRAM_SIZE)
+			{
+				Set<Long> candidates = null;
+
+				for (String gram : grams(token))
+				{
+					Set<Long> nodes = grams.getOrDefault(gram, Collections.emptySet());
+
+					if (candidates == null)
+						candidates = new HashSet<>(nodes);
+					else
+						candidates.retainAll(nodes);
+
+					if (candidates.isEmpty())
+						break;
+				}
+
+				if (candidates != null)
+				{
+					for (Long candidate : candidates)
+					{
+						if (!result.containsKey(candidate) && nodeNames.get(candidate).contains(token))
+							result.put(candidate, WEIGHT_NAME * FACTOR_INFIX);
+					}
+				}
+			}
+
+			return result;
+		}
+	}
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.data;
+
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+import jhi.buntata.data.pool.*;
+import jhi.buntata.resource.*;
+import jhi.database.server.query.*;
+import jhi.database.shared.exception.*;
+
+/**
+ * {@link RelationshipIndex} keeps the {@link BuntataRelationship} graph of all {@link BuntataDatasource}s in memory. It is built once at startup
+ * and then kept up to date whenever a {@link BuntataNode} or {@link BuntataRelationship} is added through the API. Navigation queries (children,
+ * roots, leaves, ancestors, depth) are then answered without hitting the database.
+ * <p/>
+ * Changes made directly in the database or by another server aren't seen by the API, so {@link #refresh()} rebuilds the index whenever the
+ * change watermark of the nodes and relationships differs from the one of the last build.
+ *
+ * @author Sebastian Raubach
+ */
+public class RelationshipIndex
+{
+	private static final long[] EMPTY = new long[0];
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/** Node id to the ids of its children */
+	private          Map<Long, long[]> children         = new HashMap<>();
+	/** Node id to the ids of its parents */
+	private          Map<Long, long[]> parents          = new HashMap<>();
+	/** Datasource id to the ids of its nodes */
+	private          Map<Long, long[]> datasourceNodes  = new HashMap<>();
+	/** Node id to the id of its datasource */
+	private          Map<Long, Long>   nodeToDatasource = new HashMap<>();
+	private volatile boolean           initialized      = false;
+	/** The change watermark of the nodes and relationships at the time of the last build */
+	private volatile String            watermark        = null;
+
+	public static final class Inst
+	{
+		/**
+		 * {@link InstanceHolder} is loaded on the first execution of {@link Inst#get()} or the first access to {@link InstanceHolder#INSTANCE},
+		 * not before.
+		 * <p/>
+		 * This solution (<a href= "http://en.wikipedia.org/wiki/Initialization_on_demand_holder_idiom" >Initialization-on-demand holder
+		 * idiom</a>) is thread-safe without requiring special language constructs (i.e. <code>volatile</code> or <code>synchronized</code>).
+		 *
+		 * @author Sebastian Raubach
+		 */
+		private static final class InstanceHolder
+		{
+			private static final RelationshipIndex INSTANCE = new RelationshipIndex();
+		}
+
+		public static RelationshipIndex get()
+		{
+			return InstanceHolder.INSTANCE;
+		}
+	}
+
+	private RelationshipIndex()
+	{
+	}
+
+	/**
+	 * (Re-)builds the whole index from the database. Readers keep using the old index until the new one is complete.
+	 */
+	public void rebuild()
+	{
+		// Taken before reading, so that changes made while the index is built trigger another rebuild
+		String newWatermark = getWatermark();
+
+		Map<Long, List<Long>> newChildren = new HashMap<>();
+		Map<Long, List<Long>> newParents = new HashMap<>();
+		Map<Long, List<Long>> newDatasourceNodes = new HashMap<>();
+		Map<Long, Long> newNodeToDatasource = new HashMap<>();
+
+		// Streaming all nodes and relationships holds the connection for a while on large databases
+		try (ConnectionPool.LongRunning longRunning = ConnectionPool.longRunning())
+		{
+			DatabaseObjectQuery.DatabaseObjectStreamer<BuntataNode> nodes = new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes")
+				.getStreamer(NodeDAO.Parser.Inst.get());
+
+			BuntataNode node;
+			while ((node = nodes.next()) != null)
+			{
+				newNodeToDatasource.put(node.getId(), node.getDatasourceId());
+				newDatasourceNodes.computeIfAbsent(node.getDatasourceId(), k -> new ArrayList<>()).add(node.getId());
+			}
+
+			DatabaseObjectQuery.DatabaseObjectStreamer<BuntataRelationship> relationships = new DatabaseObjectQuery<BuntataRelationship>("SELECT * FROM relationships")
+				.getStreamer(RelationshipDAO.Parser.Inst.get());
+
+			BuntataRelationship relationship;
+			while ((relationship = relationships.next()) != null)
+			{
+				newChildren.computeIfAbsent(relationship.getParent(), k -> new ArrayList<>()).add(relationship.getChild());
+				newParents.computeIfAbsent(relationship.getChild(), k -> new ArrayList<>()).add(relationship.getParent());
+			}
+		}
+		catch (DatabaseException e)
+		{
+			e.printStackTrace();
+			return;
+		}
+
+		lock.writeLock().lock();
+		try
+		{
+			children = toArrays(newChildren);
+			parents = toArrays(newParents);
+			datasourceNodes = toArrays(newDatasourceNodes);
+			nodeToDatasource = newNodeToDatasource;
+			watermark = newWatermark;
+			initialized = true;
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Rebuilds the index if the nodes or relationships have changed since the last build, including changes that haven't been made through the
+	 * API.
+	 */
+	public void refresh()
+	{
+		String current = getWatermark();
+
+		if (current != null && !current.equals(watermark))
+			rebuild();
+	}
+
+	/**
+	 * Returns the change watermark of all nodes and relationships (see {@link DatasourceDAO#getChangeWatermark(Long)}).
+	 *
+	 * @return The change watermark or <code>null</code> if it can't be determined
+	 */
+	private static String getWatermark()
+	{
+		try
+		{
+			return new ValueQuery("SELECT CONCAT_WS('|', "
+				+ DatasourceDAO.getWatermarkPart("nodes", "1 = 1") + ", "
+				+ DatasourceDAO.getWatermarkPart("relationships", "1 = 1")
+				+ ") AS watermark")
+				.run("watermark")
+				.getString();
+		}
+		catch (DatabaseException e)
+		{
+			e.printStackTrace();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Registers a newly added {@link BuntataNode}.
+	 *
+	 * @param node The new {@link BuntataNode}
+	 */
+	public void addNode(BuntataNode node)
+	{
+		if (node == null || node.getId() == null || node.getDatasourceId() == null)
+			return;
+
+		lock.writeLock().lock();
+		try
+		{
+			Long old = nodeToDatasource.put(node.getId(), node.getDatasourceId());
+
+			if (old == null)
+				datasourceNodes.put(node.getDatasourceId(), append(datasourceNodes.get(node.getDatasourceId()), node.getId()));
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Registers a newly added {@link BuntataRelationship}.
+	 *
+	 * @param relationship The new {@link BuntataRelationship}
+	 */
+	public void addRelationship(BuntataRelationship relationship)
+	{
+		if (relationship == null || relationship.getParent() == null || relationship.getChild() == null)
+			return;
+
+		lock.writeLock().lock();
+		try
+		{
+			children.put(relationship.getParent(), append(children.get(relationship.getParent()), relationship.getChild()));
+			parents.put(relationship.getChild(), append(parents.get(relationship.getChild()), relationship.getParent()));
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes all the nodes of the given {@link BuntataDatasource} (and their relationships) from the index.
+	 *
+	 * @param datasourceId The {@link BuntataDatasource} id
+	 */
+	public void removeDatasource(Long datasourceId)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			long[] nodes = datasourceNodes.remove(datasourceId);
+
+			if (nodes != null)
+			{
+				for (long node : nodes)
+				{
+					nodeToDatasource.remove(node);
+					children.remove(node);
+					parents.remove(node);
+				}
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the ids of the children of the given {@link BuntataNode}.
+	 *
+	 * @param nodeId The {@link BuntataNode} id
+	 * @return The ids of the children
+	 */
+	public List<Long> getChildren(Long nodeId)
+	{
+		ensureInitialized();
+
+		lock.readLock().lock();
+		try
+		{
+			return toList(children.get(nodeId));
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the ids of all {@link BuntataNode}s of the given {@link BuntataDatasource} that don't have a parent.
+	 *
+	 * @param datasourceId The {@link BuntataDatasource} id
+	 * @return The ids of the root nodes
+	 */
+	public List<Long> getRoots(Long datasourceId)
+	{
+		return getNodesWithout(datasourceId, true);
+	}
+
+	/**
+	 * Returns the ids of all {@link BuntataNode}s of the given {@link BuntataDatasource} that don't have a child.
+	 *
+	 * @param datasourceId The {@link BuntataDatasource} id
+	 * @return The ids of the leaf nodes
+	 */
+	public List<Long> getLeaves(Long datasourceId)
+	{
+		return getNodesWithout(datasourceId, false);
+	}
+
+	/**
+	 * Returns the ids of all ancestors of the given {@link BuntataNode} in breadth-first order, i.e. closest ancestors first.
+	 *
+	 * @param nodeId The {@link BuntataNode} id
+	 * @return The ids of all ancestors
+	 */
+	public List<Long> getAncestors(Long nodeId)
+	{
+		ensureInitialized();
+
+		lock.readLock().lock();
+		try
+		{
+			Set<Long> result = new LinkedHashSet<>();
+			Deque<Long> queue = new ArrayDeque<>();
+			queue.add(nodeId);
+
+			while (!queue.isEmpty())
+			{
+				long[] ps = parents.get(queue.poll());
+
+				if (ps != null)
+				{
+					for (long p : ps)
+					{
+						if (p != nodeId && result.add(p))
+							queue.add(p);
+					}
+				}
+			}
+
+			return new ArrayList<>(result);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the depth of the given {@link BuntataNode}, i.e. the length of the shortest path to a root node. Root nodes have a depth of 0.
+	 *
+	 * @param nodeId The {@link BuntataNode} id
+	 * @return The depth of the node
+	 */
+	public int getDepth(Long nodeId)
+	{
+		ensureInitialized();
+
+		lock.readLock().lock();
+		try
+		{
+			Set<Long> visited = new HashSet<>();
+			List<Long> level = Collections.singletonList(nodeId);
+			int depth = 0;
+
+			while (!level.isEmpty())
+			{
+				List<Long> next = new ArrayList<>();
+
+				for (Long node : level)
+				{
+					long[] ps = parents.get(node);
+
+					if (ps == null || ps.length < 1)
+						return depth;
+
+					for (long p : ps)
+					{
+						if (visited.add(p))
+							next.add(p);
+					}
+				}
+
+				level = next;
+				depth++;
+			}
+
+			// Only reached if all paths end in a cycle
+			return depth;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	private List<Long> getNodesWithout(Long datasourceId, boolean checkParents)
+	{
+		ensureInitialized();
+
+		lock.readLock().lock();
+		try
+		{
+			long[] nodes = datasourceNodes.get(datasourceId);
+
+			List<Long> result = new ArrayList<>();
+
+			if (nodes != null)
+			{
+				Map<Long, long[]> edges = checkParents ? parents : children;
+
+				for (long node : nodes)
+				{
+					long[] e = edges.get(node);
+
+					if (e == null || e.length < 1)
+						result.add(node);
+				}
+			}
+
+			return result;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	private void ensureInitialized()
+	{
+		if (!initialized)
+		{
+			synchronized (this)
+			{
+				if (!initialized)
+					rebuild();
+			}
+		}
+	}
+
+	private static long[] append(long[] array, long value)
+	{
+		if (array == null)
+			return new long[]{value};
+
+		for (long l : array)
+		{
+			if (l == value)
+				return array;
+		}
+
+		long[] result = Arrays.copyOf(array, array.length + 1);
+		result[array.length] = value;
+		return result;
+	}
+
+	private static Map<Long, long[]> toArrays(Map<Long, List<Long>> map)
+	{
+		Map<Long, long[]> result = new HashMap<>(map.size() * 2);
+
+		for (Map.Entry<Long, List<Long>> entry : map.entrySet())
+			result.put(entry.getKey(), entry.getValue().stream().mapToLong(Long::longValue).toArray());
+
+		return result;
+	}
+
+	private static List<Long> toList(long[] array)
+	{
+		if (array == null)
+			array = EMPTY;
+
+		List<Long> result = new ArrayList<>(array.length);
+		for (long l : array)
+			result.add(l);
+		return result;
+	}
+}
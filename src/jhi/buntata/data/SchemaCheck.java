@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.data;
+
+import java.util.*;
+import java.util.logging.*;
+
+import jhi.database.server.query.*;
+import jhi.database.shared.exception.*;
+
+/**
+ * {@link SchemaCheck} checks that the database has the unique keys the bulk writes rely on. Databases created before the keys were added to
+ * <code>buntata_template.sql</code> have to be upgraded using <code>buntata_upgrade_unique_keys.sql</code>, otherwise duplicates are silently
+ * written instead of being skipped or updated.
+ *
+ * @author Sebastian Raubach
+ */
+public class SchemaCheck
+{
+	/** Table name to the name of the unique key it needs */
+	private static final Map<String, String> UNIQUE_KEYS = new LinkedHashMap<>();
+
+	static
+	{
+		UNIQUE_KEYS.put("similarities", "node_a_id_node_b_id");
+		UNIQUE_KEYS.put("attributevalues", "node_id_attribute_id");
+	}
+
+	/**
+	 * Logs an error for every unique key that is missing from the database.
+	 *
+	 * @return <code>true</code> if all unique keys exist
+	 */
+	public static boolean checkUniqueKeys()
+	{
+		boolean result = true;
+
+		for (Map.Entry<String, String> key : UNIQUE_KEYS.entrySet())
+		{
+			try
+			{
+				Long count = new ValueQuery("SELECT COUNT(*) AS count FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ? AND non_unique = 0")
+					.setString(key.getKey())
+					.setString(key.getValue())
+					.run("count")
+					.getLong();
+
+				if (count == null || count < 1)
+				{
+					Logger.getLogger("").log(Level.SEVERE, "Unique key " + key.getValue() + " is missing from table " + key.getKey() + ". Run buntata_upgrade_unique_keys.sql to upgrade the database.");
+					result = false;
+				}
+			}
+			catch (DatabaseException e)
+			{
+				e.printStackTrace();
+				result = false;
+			}
+		}
+
+		return result;
+	}
+}
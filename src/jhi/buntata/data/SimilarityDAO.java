@@ -55,6 +55,53 @@ public class SimilarityDAO extends WriterDAO<BuntataSimilarity>
 		return null;
 	}
 
+	/**
+	 * Adds all the given {@link BuntataSimilarity}s that don't exist yet. Pairs that are part of the list more than once are only written once,
+	 * pairs that already exist (or refer to nodes that don't exist) are skipped. The rows are written in a single transaction using multi-row
+	 * <code>INSERT IGNORE</code> statements, relying on the unique constraint on <code>(node_a_id, node_b_id)</code>.
+	 *
+	 * @param similarities The {@link BuntataSimilarity}s to add
+	 * @return The number of inserted and skipped pairs or <code>null</code> if writing failed
+	 */
+	public InsertResult addAllIgnoringDuplicates(Collection<BuntataSimilarity> similarities)
+	{
+		Set<List<Long>> pairs = new LinkedHashSet<>();
+
+		for (BuntataSimilarity similarity : similarities)
+			pairs.add(Arrays.asList(similarity.getNodeAId(), similarity.getNodeBId()));
+
+		List<List<Long>> unique = new ArrayList<>(pairs);
+
+		Integer inserted = inTransaction(database ->
+		{
+			int result = 0;
+
+			for (int i = 0; i < unique.size(); i += BATCH_SIZE)
+			{
+				List<List<Long>> chunk = unique.subList(i, Math.min(i + BATCH_SIZE, unique.size()));
+
+				DatabaseStatement stmt = database.prepareStatement("INSERT IGNORE INTO `similarities` (`node_a_id`, `node_b_id`, `created_on`) VALUES " + String.join(", ", Collections.nCopies(chunk.size(), "(?, ?, NOW())")));
+
+				int j = 1;
+				for (List<Long> pair : chunk)
+				{
+					stmt.setLong(j++, pair.get(0));
+					stmt.setLong(j++, pair.get(1));
+				}
+
+				// Ignored rows don't count as affected, so this is exactly the number of new rows
+				result += stmt.executeUpdate();
+			}
+
+			return result;
+		});
+
+		if (inserted == null)
+			return null;
+		else
+			return new InsertResult(inserted, similarities.size() - inserted);
+	}
+
 	public boolean delete(Long id)
 	{
 		try
@@ -88,6 +135,31 @@ public class SimilarityDAO extends WriterDAO<BuntataSimilarity>
 		return null;
 	}
 
+	/**
+	 * The outcome of {@link #addAllIgnoringDuplicates(Collection)}.
+	 */
+	public static class InsertResult
+	{
+		private final int inserted;
+		private final int skipped;
+
+		public InsertResult(int inserted, int skipped)
+		{
+			this.inserted = inserted;
+			this.skipped = skipped;
+		}
+
+		public int getInserted()
+		{
+			return inserted;
+		}
+
+		public int getSkipped()
+		{
+			return skipped;
+		}
+	}
+
 	public static class Writer extends DatabaseObjectWriter<BuntataSimilarity>
 	{
 		public static final class Inst
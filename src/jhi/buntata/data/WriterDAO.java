@@ -16,6 +16,9 @@
 
 package jhi.buntata.data;
 
+import java.sql.*;
+import java.util.*;
+
 import jhi.database.server.*;
 import jhi.database.shared.exception.*;
 import jhi.database.shared.util.*;
@@ -25,14 +28,16 @@ import jhi.database.shared.util.*;
  */
 public abstract class WriterDAO<T extends DatabaseObject>
 {
+	/** The number of objects that are sent to the database in a single JDBC batch */
+	protected static final int BATCH_SIZE = 1000;
+
 	public Long add(T object)
 	{
-		try
+		// Closing the database returns the connection to the pool, make sure this also happens if writing fails
+		try (Database database = Database.connect())
 		{
-			Database database = Database.connect();
 			DatabaseObjectWriter<T> writer = getWriter();
 			writer.write(object, writer.getStatement(database));
-			database.close();
 			return object.getId();
 		}
 		catch (DatabaseException e)
@@ -42,5 +47,141 @@ public abstract class WriterDAO<T extends DatabaseObject>
 		}
 	}
 
+	/**
+	 * Adds all the given objects in a single transaction. Either all of them are written or none.
+	 *
+	 * @param objects The objects to add
+	 * @return The ids of the objects in the order of the given list or <code>null</code> if writing failed
+	 */
+	public List<Long> addAll(List<T> objects)
+	{
+		return inTransaction(database -> addAll(objects, database));
+	}
+
+	/**
+	 * Adds all the given objects using the given {@link Database}. The objects are sent in JDBC batches of {@link #BATCH_SIZE}, the generated
+	 * ids are set on the objects.
+	 *
+	 * @param objects  The objects to add
+	 * @param database The {@link Database} to use, see {@link #inTransaction(Transaction)}
+	 * @return The ids of the objects in the order of the given list
+	 * @throws DatabaseException Thrown if any of the objects can't be written
+	 */
+	public List<Long> addAll(List<T> objects, Database database)
+		throws DatabaseException
+	{
+		DatabaseObjectWriter<T> writer = getWriter();
+		DatabaseStatement stmt = writer.getStatement(database);
+
+		for (int i = 0; i < objects.size(); i += BATCH_SIZE)
+		{
+			List<T> chunk = objects.subList(i, Math.min(i + BATCH_SIZE, objects.size()));
+
+			for (T object : chunk)
+				writer.writeBatched(object, stmt);
+
+			setGeneratedIds(chunk, stmt.executeBatch());
+		}
+
+		List<Long> result = new ArrayList<>();
+		objects.forEach(o -> result.add(o.getId()));
+		return result;
+	}
+
+	/**
+	 * Sets the generated ids on the objects that didn't have one. Depending on the driver, objects with an explicit id do or don't get a generated
+	 * key, both cases are handled.
+	 */
+	private void setGeneratedIds(List<T> chunk, List<Long> keys)
+		throws DatabaseException
+	{
+		if (keys.size() == chunk.size())
+		{
+			for (int i = 0; i < chunk.size(); i++)
+			{
+				if (chunk.get(i).getId() == null)
+					chunk.get(i).setId(keys.get(i));
+			}
+		}
+		else
+		{
+			Iterator<Long> it = keys.iterator();
+
+			for (T object : chunk)
+			{
+				if (object.getId() == null)
+				{
+					if (!it.hasNext())
+						throw new DatabaseException("Expected a generated id for every new object, but only got " + keys.size() + " for " + chunk.size() + " objects");
+
+					object.setId(it.next());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs the given {@link Transaction} on a single connection. Everything it writes is committed if it succeeds and rolled back otherwise.
+	 *
+	 * @param transaction The {@link Transaction} to run
+	 * @param <R>         The type of the result
+	 * @return The result of the {@link Transaction} or <code>null</code> if it failed
+	 */
+	public static <R> R inTransaction(Transaction<R> transaction)
+	{
+		try (Database database = Database.connect())
+		{
+			Connection connection = database.getConnection();
+			connection.setAutoCommit(false);
+
+			try
+			{
+				R result = transaction.run(database);
+				connection.commit();
+				return result;
+			}
+			catch (DatabaseException | SQLException | RuntimeException e)
+			{
+				rollback(connection);
+				throw e;
+			}
+			finally
+			{
+				if (!connection.isClosed())
+					connection.setAutoCommit(true);
+			}
+		}
+		catch (DatabaseException | SQLException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private static void rollback(Connection connection)
+	{
+		try
+		{
+			// The database layer closes the connection on errors, in which case it's rolled back anyway
+			if (!connection.isClosed())
+				connection.rollback();
+		}
+		catch (SQLException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
 	protected abstract DatabaseObjectWriter<T> getWriter();
+
+	/**
+	 * A unit of work that runs inside a transaction (see {@link #inTransaction(Transaction)}).
+	 *
+	 * @param <R> The type of the result
+	 */
+	public interface Transaction<R>
+	{
+		R run(Database database)
+			throws DatabaseException, SQLException;
+	}
 }
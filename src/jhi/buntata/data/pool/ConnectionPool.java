@@ -0,0 +1,522 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.data.pool;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+
+/**
+ * {@link ConnectionPool} keeps a bounded number of physical database connections open and hands them out to callers. Closing a borrowed
+ * {@link Connection} returns it to the pool. Idle connections are validated before they're handed out again, connections that are held for longer
+ * than {@link #LEAK_THRESHOLD_MILLIS} are reported along with where they were borrowed, unless the borrowing thread has marked its work as
+ * long-running (see {@link #longRunning()}). Connections that still haven't been returned after
+ * {@link #RECLAIM_THRESHOLD_MILLIS} are closed and their slot is given back to the pool, so that leaks can't exhaust it. Prepared statements are cached per connection by the
+ * driver (see {@link #getProperties(String, String)}).
+ * <p/>
+ * The pool is plugged in underneath the database layer by the {@link PoolingDriver}.
+ *
+ * @author Sebastian Raubach
+ */
+public class ConnectionPool
+{
+	/** How long callers wait for a connection before giving up */
+	private static final long BORROW_TIMEOUT_MILLIS      = TimeUnit.SECONDS.toMillis(30);
+	/** How long a connection may be held before it's reported as leaked */
+	private static final long LEAK_THRESHOLD_MILLIS      = TimeUnit.MINUTES.toMillis(2);
+	/** How long a connection may be held before it's closed and its slot is reclaimed. Well beyond the export timeout of 30 minutes. */
+	private static final long RECLAIM_THRESHOLD_MILLIS   = TimeUnit.HOURS.toMillis(2);
+	/** Idle connections are closed after this time */
+	private static final long IDLE_TIMEOUT_MILLIS        = TimeUnit.MINUTES.toMillis(10);
+	/** Connections returned more recently than this aren't validated again */
+	private static final long VALIDATION_BYPASS_MILLIS   = 500;
+	private static final int  VALIDATION_TIMEOUT_SECONDS = 2;
+	private static final long HOUSEKEEPING_SECONDS       = 30;
+
+	/** Whether the database work of the current thread is expected to hold its connections for long */
+	private static final ThreadLocal<Boolean> LONG_RUNNING = ThreadLocal.withInitial(() -> false);
+
+	private final Driver     driver;
+	private final String     url;
+	private final Properties properties;
+	private final int        maxSize;
+
+	private final Semaphore                 permits;
+	private final Deque<Idle>               idle     = new ArrayDeque<>();
+	private final Set<Borrowed>             borrowed = ConcurrentHashMap.newKeySet();
+	private final ScheduledExecutorService  housekeeping;
+
+	private final AtomicLong borrows            = new AtomicLong();
+	private final AtomicLong borrowNanos        = new AtomicLong();
+	private final AtomicLong waitNanos          = new AtomicLong();
+	private final AtomicLong timeouts           = new AtomicLong();
+	private final AtomicLong created            = new AtomicLong();
+	private final AtomicLong validationFailures = new AtomicLong();
+	private final AtomicLong leaks              = new AtomicLong();
+	private final AtomicLong reclaimed          = new AtomicLong();
+
+	/**
+	 * Creates a new {@link ConnectionPool}
+	 *
+	 * @param driver   The {@link Driver} to create the physical connections with
+	 * @param url      The JDBC url of the database
+	 * @param username The database username
+	 * @param password The database password
+	 * @param maxSize  The maximal number of connections
+	 */
+	public ConnectionPool(Driver driver, String url, String username, String password, int maxSize)
+	{
+		this.driver = driver;
+		this.url = url;
+		this.properties = getProperties(username, password);
+		this.maxSize = Math.max(1, maxSize);
+		this.permits = new Semaphore(this.maxSize, true);
+
+		this.housekeeping = Executors.newSingleThreadScheduledExecutor(r ->
+		{
+			Thread thread = new Thread(r, "buntata-connection-pool");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.housekeeping.scheduleWithFixedDelay(this::housekeeping, HOUSEKEEPING_SECONDS, HOUSEKEEPING_SECONDS, TimeUnit.SECONDS);
+	}
+
+	private static Properties getProperties(String username, String password)
+	{
+		Properties result = new Properties();
+
+		if (username != null)
+			result.setProperty("user", username);
+		if (password != null)
+			result.setProperty("password", password);
+
+		// Let MySQL Connector/J cache the prepared statements of each connection, the DAOs use the same few statements over and over
+		result.setProperty("cachePrepStmts", "true");
+		result.setProperty("prepStmtCacheSize", "250");
+		result.setProperty("prepStmtCacheSqlLimit", "2048");
+
+		return result;
+	}
+
+	/**
+	 * Marks the database work of the current thread as long-running (e.g. streaming whole tables) until the returned {@link LongRunning} is
+	 * closed. Connections borrowed in the meantime aren't reported as leaked, they're still reclaimed after {@link #RECLAIM_THRESHOLD_MILLIS}.
+	 *
+	 * @return The {@link LongRunning} to close once the work is done
+	 */
+	public static LongRunning longRunning()
+	{
+		boolean previous = LONG_RUNNING.get();
+		LONG_RUNNING.set(true);
+
+		return () -> LONG_RUNNING.set(previous);
+	}
+
+	public String getUrl()
+	{
+		return url;
+	}
+
+	/**
+	 * Checks whether connections for the given url and connection properties can be taken from this pool. Only the url and the credentials are
+	 * compared, any other properties are ignored in favour of the ones of the pool.
+	 *
+	 * @param url  The JDBC url
+	 * @param info The connection properties (may be <code>null</code>)
+	 * @return <code>true</code> if the pool serves these connections
+	 */
+	public boolean matches(String url, Properties info)
+	{
+		if (!this.url.equals(url))
+			return false;
+
+		return info == null || (Objects.equals(info.getProperty("user"), properties.getProperty("user")) && Objects.equals(info.getProperty("password"), properties.getProperty("password")));
+	}
+
+	/**
+	 * Borrows a {@link Connection} from the pool. Closing it returns it to the pool.
+	 *
+	 * @return The {@link Connection}
+	 * @throws SQLException Thrown if no connection becomes available in time or a new one can't be created
+	 */
+	public Connection borrow()
+		throws SQLException
+	{
+		long start = System.nanoTime();
+
+		boolean acquired;
+
+		try
+		{
+			acquired = permits.tryAcquire(BORROW_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SQLTransientConnectionException("Interrupted while waiting for a database connection", e);
+		}
+		finally
+		{
+			waitNanos.addAndGet(System.nanoTime() - start);
+		}
+
+		if (!acquired)
+		{
+			timeouts.incrementAndGet();
+			throw new SQLTransientConnectionException("Timed out waiting for a database connection after " + BORROW_TIMEOUT_MILLIS + "ms");
+		}
+
+		try
+		{
+			Connection connection = getIdle();
+
+			if (connection == null)
+			{
+				connection = driver.connect(url, properties);
+
+				if (connection == null)
+					throw new SQLNonTransientConnectionException("The driver doesn't accept the url: " + url);
+
+				created.incrementAndGet();
+			}
+
+			Borrowed entry = new Borrowed(connection);
+			borrowed.add(entry);
+
+			borrows.incrementAndGet();
+			borrowNanos.addAndGet(System.nanoTime() - start);
+
+			return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[]{Connection.class}, new Handler(entry));
+		}
+		catch (SQLException | RuntimeException e)
+		{
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the next valid idle connection or <code>null</code> if there is none.
+	 */
+	private Connection getIdle()
+	{
+		while (true)
+		{
+			Idle candidate;
+
+			synchronized (idle)
+			{
+				// Most recently used first, those are the most likely to still be alive
+				candidate = idle.pollFirst();
+			}
+
+			if (candidate == null)
+				return null;
+
+			if (System.currentTimeMillis() - candidate.since < VALIDATION_BYPASS_MILLIS || isValid(candidate.connection))
+				return candidate.connection;
+
+			validationFailures.incrementAndGet();
+			closeQuietly(candidate.connection);
+		}
+	}
+
+	private static boolean isValid(Connection connection)
+	{
+		try
+		{
+			return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+		}
+		catch (SQLException e)
+		{
+			return false;
+		}
+	}
+
+	private void release(Borrowed entry)
+	{
+		borrowed.remove(entry);
+
+		Connection connection = entry.connection;
+
+		try
+		{
+			boolean reusable = !connection.isClosed();
+
+			// Don't hand out connections with a half-done transaction
+			if (reusable && !connection.getAutoCommit())
+			{
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+
+			if (reusable)
+			{
+				connection.clearWarnings();
+
+				synchronized (idle)
+				{
+					idle.addFirst(new Idle(connection));
+				}
+			}
+		}
+		catch (SQLException e)
+		{
+			closeQuietly(connection);
+		}
+		finally
+		{
+			permits.release();
+		}
+	}
+
+	/**
+	 * Closes connections that have been idle for too long, reports connections that have been borrowed for too long and reclaims the ones that
+	 * still haven't been returned after {@link #RECLAIM_THRESHOLD_MILLIS}.
+	 */
+	private void housekeeping()
+	{
+		long now = System.currentTimeMillis();
+
+		List<Connection> expired = new ArrayList<>();
+
+		synchronized (idle)
+		{
+			Iterator<Idle> it = idle.iterator();
+			while (it.hasNext())
+			{
+				Idle candidate = it.next();
+
+				if (now - candidate.since > IDLE_TIMEOUT_MILLIS)
+				{
+					expired.add(candidate.connection);
+					it.remove();
+				}
+			}
+		}
+
+		expired.forEach(ConnectionPool::closeQuietly);
+
+		for (Borrowed entry : borrowed)
+		{
+			if (!entry.reported && !entry.longRunning && now - entry.since > LEAK_THRESHOLD_MILLIS)
+			{
+				entry.reported = true;
+				leaks.incrementAndGet();
+				Logger.getLogger("").log(Level.WARNING, "Database connection borrowed by " + entry.thread + " hasn't been returned for " + (now - entry.since) + "ms", entry.trace);
+			}
+
+			// The holder gets an exception on its next call, the connection itself is closed along with its statements
+			if (now - entry.since > RECLAIM_THRESHOLD_MILLIS && entry.closed.compareAndSet(false, true))
+			{
+				borrowed.remove(entry);
+				closeQuietly(entry.connection);
+				permits.release();
+
+				reclaimed.incrementAndGet();
+				Logger.getLogger("").log(Level.WARNING, "Closed database connection borrowed by " + entry.thread + " after " + (now - entry.since) + "ms", entry.trace);
+			}
+		}
+	}
+
+	/**
+	 * Closes all idle connections and stops the housekeeping. Borrowed connections are closed when they're returned.
+	 */
+	public void close()
+	{
+		housekeeping.shutdownNow();
+
+		synchronized (idle)
+		{
+			idle.forEach(i -> closeQuietly(i.connection));
+			idle.clear();
+		}
+	}
+
+	private static void closeQuietly(Connection connection)
+	{
+		try
+		{
+			connection.close();
+		}
+		catch (SQLException e)
+		{
+			// Nothing we can do about it
+		}
+	}
+
+	/**
+	 * Returns the pool statistics in the Prometheus text exposition format.
+	 *
+	 * @return The pool statistics in the Prometheus text exposition format
+	 */
+	public String getMetrics()
+	{
+		int idleCount;
+
+		synchronized (idle)
+		{
+			idleCount = idle.size();
+		}
+
+		StringBuilder builder = new StringBuilder();
+
+		append(builder, "buntata_database_pool_connections_max", "gauge", "Maximal number of database connections", maxSize);
+		append(builder, "buntata_database_pool_connections_active", "gauge", "Database connections currently borrowed", borrowed.size());
+		append(builder, "buntata_database_pool_connections_idle", "gauge", "Database connections waiting to be borrowed", idleCount);
+		append(builder, "buntata_database_pool_waiting", "gauge", "Callers waiting for a database connection", permits.getQueueLength());
+		append(builder, "buntata_database_pool_borrows_total", "counter", "Database connections handed out", borrows.get());
+		append(builder, "buntata_database_pool_borrow_milliseconds_total", "counter", "Total time spent borrowing connections, including waiting, validation and creation", TimeUnit.NANOSECONDS.toMillis(borrowNanos.get()));
+		append(builder, "buntata_database_pool_wait_milliseconds_total", "counter", "Total time spent waiting for a free connection", TimeUnit.NANOSECONDS.toMillis(waitNanos.get()));
+		append(builder, "buntata_database_pool_timeouts_total", "counter", "Borrow attempts that timed out", timeouts.get());
+		append(builder, "buntata_database_pool_created_total", "counter", "Physical database connections opened", created.get());
+		append(builder, "buntata_database_pool_validation_failures_total", "counter", "Idle connections found broken on borrow", validationFailures.get());
+		append(builder, "buntata_database_pool_leaks_total", "counter", "Connections held longer than the leak threshold", leaks.get());
+		append(builder, "buntata_database_pool_reclaimed_total", "counter", "Leaked connections closed by the pool", reclaimed.get());
+
+		return builder.toString();
+	}
+
+	private static void append(StringBuilder builder, String name, String type, String help, long value)
+	{
+		builder.append("# HELP ").append(name).append(" ").append(help).append("\n")
+			   .append("# TYPE ").append(name).append(" ").append(type).append("\n")
+			   .append(name).append(" ").append(value).append("\n");
+	}
+
+	/**
+	 * Ends the long-running section started by {@link #longRunning()}.
+	 */
+	public interface LongRunning extends AutoCloseable
+	{
+		@Override
+		void close();
+	}
+
+	private static class Idle
+	{
+		private final Connection connection;
+		private final long       since = System.currentTimeMillis();
+
+		private Idle(Connection connection)
+		{
+			this.connection = connection;
+		}
+	}
+
+	private static class Borrowed
+	{
+		private final    Connection    connection;
+		private final    long          since       = System.currentTimeMillis();
+		private final    String        thread      = Thread.currentThread().getName();
+		private final    Throwable     trace       = new Throwable("Borrowed here");
+		private final    AtomicBoolean closed      = new AtomicBoolean();
+		private final    boolean       longRunning = LONG_RUNNING.get();
+		private volatile boolean       reported;
+
+		private Borrowed(Connection connection)
+		{
+			this.connection = connection;
+		}
+	}
+
+	/**
+	 * Hands all calls on to the physical connection, except for {@link Connection#close()}, which returns it to the pool.
+	 */
+	private class Handler implements InvocationHandler
+	{
+		private final Borrowed        entry;
+		private final Connection      connection;
+		private final AtomicBoolean   closed;
+		private final List<Statement> statements = Collections.synchronizedList(new ArrayList<>());
+
+		private Handler(Borrowed entry)
+		{
+			this.entry = entry;
+			this.connection = entry.connection;
+			this.closed = entry.closed;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable
+		{
+			switch (method.getName())
+			{
+				case "close":
+					if (closed.compareAndSet(false, true))
+					{
+						closeStatements();
+						release(entry);
+					}
+					return null;
+				case "isClosed":
+					return closed.get() || connection.isClosed();
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "Pooled " + connection;
+			}
+
+			if (closed.get())
+				throw new SQLNonTransientConnectionException("The connection has already been returned to or reclaimed by the pool");
+
+			try
+			{
+				Object result = method.invoke(connection, args);
+
+				if (result instanceof Statement)
+					statements.add((Statement) result);
+
+				return result;
+			}
+			catch (InvocationTargetException e)
+			{
+				throw e.getCause();
+			}
+		}
+
+		/**
+		 * The database layer never closes its statements, it relies on closing the connection instead. Pooled connections stay open, so the
+		 * statements (and their result sets) have to be closed when the connection is returned. Cached prepared statements go back to the cache.
+		 */
+		private void closeStatements()
+		{
+			synchronized (statements)
+			{
+				for (Statement statement : statements)
+				{
+					try
+					{
+						statement.close();
+					}
+					catch (SQLException e)
+					{
+						// Closing the statement is best effort, the connection is validated before it's used again
+					}
+				}
+
+				statements.clear();
+			}
+		}
+	}
+}
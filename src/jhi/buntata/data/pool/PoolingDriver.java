@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.data.pool;
+
+import java.sql.*;
+import java.util.*;
+import java.util.logging.*;
+
+import jhi.database.server.*;
+
+/**
+ * {@link PoolingDriver} puts a {@link ConnectionPool} underneath {@link Database#connect()}. The database layer gets its connections from the
+ * {@link DriverManager}, so the pooling driver takes the place of the actual driver and hands out pooled connections for the application's
+ * database url and credentials instead of opening a new one every time. Any other connection request for the actual driver is handed on to it
+ * unchanged, connections to other databases (e.g. the SQLite exports) aren't affected at all.
+ * <p/>
+ * The {@link DriverManager} is shared by the whole JVM, so while the pooling driver is installed, other applications in the same container that
+ * use the actual driver go through it as well. They get their own, unpooled connections.
+ *
+ * @author Sebastian Raubach
+ */
+public class PoolingDriver implements Driver
+{
+	private final Driver         delegate;
+	private final ConnectionPool pool;
+
+	private PoolingDriver(Driver delegate, ConnectionPool pool)
+	{
+		this.delegate = delegate;
+		this.pool = pool;
+	}
+
+	/**
+	 * Registers a {@link PoolingDriver} for the given database in place of the actual driver. The actual driver is deregistered from the
+	 * {@link DriverManager} until {@link #uninstall()} is called.
+	 *
+	 * @param type     The {@link Database.DatabaseType}
+	 * @param database The database (as passed to {@link Database#init(String, String, String)})
+	 * @param username The database username
+	 * @param password The database password
+	 * @param maxSize  The maximal number of connections
+	 * @return The registered {@link PoolingDriver}
+	 * @throws SQLException Thrown if the actual driver can't be found
+	 */
+	public static PoolingDriver install(Database.DatabaseType type, String database, String username, String password, int maxSize)
+		throws SQLException
+	{
+		String url = type.getConnectionString() + database;
+
+		try
+		{
+			Class.forName(type.getClassForName());
+		}
+		catch (ClassNotFoundException e)
+		{
+			throw new SQLException(e);
+		}
+
+		Driver delegate = DriverManager.getDriver(url);
+
+		// The driver manager asks the drivers in turn, so the actual driver has to go for this one to be asked for the url
+		DriverManager.deregisterDriver(delegate);
+
+		PoolingDriver driver = new PoolingDriver(delegate, new ConnectionPool(delegate, url, username, password, maxSize));
+		DriverManager.registerDriver(driver);
+
+		return driver;
+	}
+
+	/**
+	 * Deregisters this driver, closes the pool and puts the actual driver back.
+	 */
+	public void uninstall()
+	{
+		try
+		{
+			DriverManager.deregisterDriver(this);
+			DriverManager.registerDriver(delegate);
+		}
+		catch (SQLException e)
+		{
+			e.printStackTrace();
+		}
+
+		pool.close();
+	}
+
+	public ConnectionPool getPool()
+	{
+		return pool;
+	}
+
+	@Override
+	public Connection connect(String url, Properties info)
+		throws SQLException
+	{
+		// Only the application's own connections are pooled, any other ones come straight from the actual driver
+		if (pool.matches(url, info))
+			return pool.borrow();
+		else
+			return delegate.connect(url, info);
+	}
+
+	@Override
+	public boolean acceptsURL(String url)
+		throws SQLException
+	{
+		return pool.getUrl().equals(url) || delegate.acceptsURL(url);
+	}
+
+	@Override
+	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info)
+		throws SQLException
+	{
+		return delegate.getPropertyInfo(url, info);
+	}
+
+	@Override
+	public int getMajorVersion()
+	{
+		return delegate.getMajorVersion();
+	}
+
+	@Override
+	public int getMinorVersion()
+	{
+		return delegate.getMinorVersion();
+	}
+
+	@Override
+	public boolean jdbcCompliant()
+	{
+		return delegate.jdbcCompliant();
+	}
+
+	@Override
+	public Logger getParentLogger()
+		throws SQLFeatureNotSupportedException
+	{
+		return delegate.getParentLogger();
+	}
+}
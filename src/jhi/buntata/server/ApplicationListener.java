@@ -16,11 +16,18 @@
 
 package jhi.buntata.server;
 
+import java.io.*;
+import java.sql.*;
+import java.util.*;
 import java.util.concurrent.*;
 
 import javax.servlet.*;
 
+import jhi.buntata.data.*;
+import jhi.buntata.data.pool.*;
 import jhi.buntata.server.auth.*;
+import jhi.buntata.server.image.*;
+import jhi.buntata.server.io.*;
 import jhi.buntata.server.job.*;
 import jhi.database.server.*;
 
@@ -32,7 +39,24 @@ import jhi.database.server.*;
  */
 public class ApplicationListener implements ServletContextListener
 {
-	private ScheduledExecutorService scheduler;
+	/** The default size of the thumbnail cache in megabytes */
+	private static final long DEFAULT_THUMBNAIL_CACHE_SIZE_MB = 1024;
+	/** The default maximal size of the exported files in megabytes */
+	private static final long DEFAULT_EXPORT_CACHE_SIZE_MB    = 10240;
+	/** The number of exports that can run at the same time */
+	private static final int  EXPORT_THREADS                  = 2;
+	/** The number of threads looking up media file sizes */
+	private static final int  FILE_SIZE_THREADS               = 4;
+	/** The default maximal number of database connections */
+	private static final int  DEFAULT_DATABASE_POOL_SIZE      = 20;
+
+	private ScheduledExecutorService  scheduler;
+	private ScheduledExecutorService  thumbnailScheduler;
+	private ThumbnailService          thumbnailService;
+	private ExportCoordinator         exportCoordinator;
+	private DatasourceSizeAccumulator sizeAccumulator;
+	private FileSizeReader            sizeReader;
+	private PoolingDriver             poolingDriver;
 
 	@Override
 	public void contextInitialized(ServletContextEvent sce)
@@ -43,23 +67,81 @@ public class ApplicationListener implements ServletContextListener
 		String masterUsername = sce.getServletContext().getInitParameter("masterUsername");
 		String masterPassword = sce.getServletContext().getInitParameter("masterPassword");
 		String dataDir = sce.getServletContext().getInitParameter("dataDir");
+		String version = sce.getServletContext().getInitParameter("version");
+		String thumbnailSizes = sce.getServletContext().getInitParameter("thumbnailSizes");
+		String thumbnailCacheSize = sce.getServletContext().getInitParameter("thumbnailCacheSize");
+		String exportFolder = sce.getServletContext().getInitParameter("exportFolder");
+		String exportCacheSize = sce.getServletContext().getInitParameter("exportCacheSize");
+		String databasePoolSize = sce.getServletContext().getInitParameter("databasePoolSize");
+
+		// Thumbnails are generated on a bounded pool so that bursts of requests can't exhaust CPU and memory
+		int thumbnailThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+		thumbnailService = new ThumbnailService(new File(System.getProperty("java.io.tmpdir"), "buntata-thumbnails" + "-" + version), thumbnailThreads, parseSizes(thumbnailSizes), parseMegabytes(thumbnailCacheSize, DEFAULT_THUMBNAIL_CACHE_SIZE_MB));
+
+		// Exports are single-flight per datasource and run on a bounded pool. They're kept in the configured folder, or the temp folder if there is none.
+		File exportStoreFolder = (exportFolder == null || exportFolder.trim().isEmpty()) ? new File(System.getProperty("java.io.tmpdir"), "buntata-datasources" + "-" + version) : new File(exportFolder.trim());
+		ExportStore exportStore = new ExportStore(exportStoreFolder, parseMegabytes(exportCacheSize, DEFAULT_EXPORT_CACHE_SIZE_MB));
+		exportCoordinator = new ExportCoordinator(sce.getServletContext(), exportStore, EXPORT_THREADS);
+
+		// Uploads and deletions publish their size changes, they're written to the database in batches
+		sizeAccumulator = new DatasourceSizeAccumulator();
+		// The media file sizes are looked up in parallel when they're recomputed
+		sizeReader = new FileSizeReader(FILE_SIZE_THREADS);
 
 		CustomVerifier.setMasterUsername(masterUsername);
 		CustomVerifier.setMasterPassword(masterPassword);
+		DatasourceDownload.setExportCoordinator(exportCoordinator);
+		Export.setExportCoordinator(exportCoordinator);
+		ExportMetrics.setExportCoordinator(exportCoordinator);
 		DatasourceIcon.setDataDir(dataDir);
 		Media.setDataDir(dataDir);
+		Media.setThumbnailService(thumbnailService);
+		Media.setSizeAccumulator(sizeAccumulator);
 		NodeMedia.setDataDir(dataDir);
+		NodeMedia.setThumbnailService(thumbnailService);
+		NodeMedia.setSizeAccumulator(sizeAccumulator);
+		NodeMediaBulk.setDataDir(dataDir);
+		NodeMediaBulk.setSizeAccumulator(sizeAccumulator);
 
 		database = database.replace(Database.DatabaseType.MYSQL.getConnectionString(), "");
 
 		Database.init(database, username, password);
 
+		// All database access goes through Database.connect(), pool the connections underneath it
+		try
+		{
+			poolingDriver = PoolingDriver.install(Database.DatabaseType.MYSQL, database, username, password, parseInt(databasePoolSize, DEFAULT_DATABASE_POOL_SIZE));
+			DatabaseMetrics.setConnectionPool(poolingDriver.getPool());
+		}
+		catch (SQLException e)
+		{
+			e.printStackTrace();
+		}
+
+		// Databases created from an older template need to be upgraded for the bulk writes to skip and update duplicates
+		SchemaCheck.checkUniqueKeys();
+
+		// Build the in-memory node graph used for tree navigation, the search index and the media type and attribute lookups
+		RelationshipIndex.Inst.get().rebuild();
+		NodeSearchIndex.Inst.get().rebuild();
+		MediaTypeRegistry.Inst.get().rebuild();
+		AttributeRegistry.Inst.get().rebuild();
+
 		// Start the scheduler
 		scheduler = Executors.newSingleThreadScheduledExecutor();
-		// Run the size calculation job every 15 minutes
-		scheduler.scheduleAtFixedRate(new DatasourceSizeJob(), 0, 15, TimeUnit.MINUTES);
+		// Write the size changes of the data sources every 30 seconds
+		scheduler.scheduleAtFixedRate(sizeAccumulator, 30, 30, TimeUnit.SECONDS);
+		// Recompute the sizes from scratch every 6 hours to correct any drift
+		scheduler.scheduleAtFixedRate(new DatasourceSizeJob(dataDir, sizeReader, sizeAccumulator), 0, 6, TimeUnit.HOURS);
+		// Rebuild the node graph and the search index every 5 minutes if the database has been changed outside of this server
+		scheduler.scheduleWithFixedDelay(() -> RelationshipIndex.Inst.get().refresh(), 5, 5, TimeUnit.MINUTES);
+		scheduler.scheduleWithFixedDelay(() -> NodeSearchIndex.Inst.get().refresh(), 5, 5, TimeUnit.MINUTES);
 		// Run the data export job every 15 minutes
-		scheduler.scheduleAtFixedRate(new DatasourceExportJob(sce.getServletContext()), 0, 15, TimeUnit.MINUTES);
+		scheduler.scheduleAtFixedRate(new DatasourceExportJob(exportCoordinator), 0, 15, TimeUnit.MINUTES);
+		// Generate missing or outdated thumbnails every 15 minutes. The job waits for the generations, so it gets a scheduler of its own to not hold
+		// up the other jobs.
+		thumbnailScheduler = Executors.newSingleThreadScheduledExecutor();
+		thumbnailScheduler.scheduleWithFixedDelay(new ThumbnailJob(dataDir, thumbnailService, thumbnailThreads), 0, 15, TimeUnit.MINUTES);
 	}
 
 	@Override
@@ -67,12 +149,90 @@ public class ApplicationListener implements ServletContextListener
 	{
 		try
 		{
-			// Stop the scheduler
+			// Stop the schedulers
 			scheduler.shutdownNow();
+			thumbnailScheduler.shutdownNow();
+			// Write the remaining size changes
+			sizeAccumulator.flush();
+			// Stop the file size lookups
+			sizeReader.shutdown();
+			// Close the database connections
+			if (poolingDriver != null)
+				poolingDriver.uninstall();
+			// Stop the thumbnail workers
+			thumbnailService.shutdown();
+			// Cancel running exports
+			exportCoordinator.shutdown();
+			// Stop hashing served files
+			ContentHashCache.Inst.get().shutdown();
 		}
 		catch (Exception e)
 		{
 			e.printStackTrace();
 		}
+
+		// The SQLite driver is loaded in-process for the exports, deregister all drivers of this application so that it can be redeployed
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		Enumeration<Driver> drivers = DriverManager.getDrivers();
+		while (drivers.hasMoreElements())
+		{
+			Driver driver = drivers.nextElement();
+
+			if (driver.getClass().getClassLoader() == classLoader)
+			{
+				try
+				{
+					DriverManager.deregisterDriver(driver);
+				}
+				catch (SQLException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private static int[] parseSizes(String value)
+	{
+		if (value == null)
+			return null;
+
+		try
+		{
+			return Arrays.stream(value.split(","))
+						 .map(String::trim)
+						 .filter(s -> !s.isEmpty())
+						 .mapToInt(Integer::parseInt)
+						 .filter(i -> i > 0)
+						 .toArray();
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
+
+	private static int parseInt(String value, int fallback)
+	{
+		try
+		{
+			return Integer.parseInt(value.trim());
+		}
+		catch (NullPointerException | NumberFormatException e)
+		{
+			return fallback;
+		}
+	}
+
+	private static long parseMegabytes(String value, long fallback)
+	{
+		try
+		{
+			return Long.parseLong(value.trim()) * 1024 * 1024;
+		}
+		catch (NullPointerException | NumberFormatException e)
+		{
+			return fallback * 1024 * 1024;
+		}
 	}
 }
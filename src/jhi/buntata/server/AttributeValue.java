@@ -29,8 +29,7 @@ import jhi.buntata.resource.*;
  */
 public class AttributeValue extends ServerResource
 {
-	private final AttributeDAO      attributeDao = new AttributeDAO();
-	private final AttributeValueDAO valueDao     = new AttributeValueDAO();
+	private final AttributeValueDAO valueDao = new AttributeValueDAO();
 
 	private Long id = null;
 
@@ -51,43 +50,24 @@ public class AttributeValue extends ServerResource
 	@Put("json")
 	public Long putJson(BuntataAttributeValue av)
 	{
-		BuntataAttribute attr = attributeDao.getByName(av.getAttribute().getName());
+		resolveAttribute(av);
 
-		if (attr == null)
-		{
-			attributeDao.add(av.getAttribute());
-			attr = av.getAttribute();
-		}
-		av.setAttributeId(attr.getId());
-		av.setAttribute(attr);
+		Long result = valueDao.upsert(av);
 
-		BuntataAttributeValue exists = valueDao.getFor(av.getNodeId(), attr.getId());
+		if (result == null)
+			throw new ResourceException(Status.SERVER_ERROR_INTERNAL);
 
-		if (exists != null)
-		{
-			valueDao.update(av);
-			return av.getId();
-		}
-		else
-		{
-			return valueDao.add(av);
-		}
+		NodeSearchIndex.Inst.get().reindex(av.getNodeId());
+
+		return result;
 	}
 
 	@Post("json")
 	public Long postJson(BuntataAttributeValue av)
 	{
-		BuntataAttribute attr = attributeDao.getByName(av.getAttribute().getName());
+		resolveAttribute(av);
 
-		if (attr == null)
-		{
-			attributeDao.add(av.getAttribute());
-			attr = av.getAttribute();
-		}
-		av.setAttributeId(attr.getId());
-		av.setAttribute(attr);
-
-		BuntataAttributeValue exists = valueDao.getFor(av.getNodeId(), attr.getId());
+		BuntataAttributeValue exists = valueDao.getFor(av.getNodeId(), av.getAttributeId());
 
 		if (exists != null)
 		{
@@ -95,10 +75,29 @@ public class AttributeValue extends ServerResource
 		}
 		else
 		{
-			return valueDao.add(av);
+			Long result = valueDao.add(av);
+			NodeSearchIndex.Inst.get().reindex(av.getNodeId());
+			return result;
 		}
 	}
 
+	/**
+	 * Sets the id of the {@link BuntataAttribute} of the given {@link BuntataAttributeValue}, adding the attribute if it doesn't exist yet.
+	 */
+	private static void resolveAttribute(BuntataAttributeValue av)
+	{
+		if (av == null || av.getNodeId() == null || av.getAttribute() == null || av.getAttribute().getName() == null)
+			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST);
+
+		Long attributeId = AttributeRegistry.Inst.get().getOrAdd(av.getAttribute());
+
+		if (attributeId == null)
+			throw new ResourceException(Status.SERVER_ERROR_INTERNAL);
+
+		av.getAttribute().setId(attributeId);
+		av.setAttributeId(attributeId);
+	}
+
 	@Delete("json")
 	public boolean deleteJson()
 	{
@@ -113,6 +112,7 @@ public class AttributeValue extends ServerResource
 			if (av != null)
 			{
 				valueDao.delete(av.getId());
+				NodeSearchIndex.Inst.get().reindex(av.getNodeId());
 				return true;
 			}
 			else
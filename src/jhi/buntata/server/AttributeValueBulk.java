@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server;
+
+import org.restlet.data.Status;
+import org.restlet.resource.*;
+
+import java.util.*;
+
+import jhi.buntata.data.*;
+import jhi.buntata.resource.*;
+
+/**
+ * {@link ServerResource} adding many {@link BuntataAttributeValue}s at once. Like {@link AttributeValue}, the attributes are identified by
+ * name and created if they don't exist yet (see {@link AttributeRegistry}). Everything is written in a single transaction, the ids are returned
+ * in the order of the request. If any node already has a value for the attribute (or the request contains it twice), nothing is written.
+ *
+ * @author Sebastian Raubach
+ */
+public class AttributeValueBulk extends ServerResource
+{
+	private final AttributeValueDAO valueDao = new AttributeValueDAO();
+
+	@Post("json")
+	public List<Long> postJson(BuntataAttributeValue[] values)
+	{
+		if (values == null || values.length < 1)
+			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST);
+
+		Set<Long> nodeIds = new HashSet<>();
+
+		for (BuntataAttributeValue av : values)
+		{
+			if (av.getNodeId() == null || av.getAttribute() == null || av.getAttribute().getName() == null)
+				throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST);
+
+			nodeIds.add(av.getNodeId());
+		}
+
+		// Resolve the attribute names, attributes that don't exist yet are added along with the values. The database compares names
+		// case-insensitively, so names that only differ in case are the same new attribute.
+		AttributeRegistry registry = AttributeRegistry.Inst.get();
+		Map<String, BuntataAttribute> missing = new LinkedHashMap<>();
+
+		for (BuntataAttributeValue av : values)
+		{
+			Long attributeId = registry.getId(av.getAttribute().getName());
+
+			if (attributeId != null)
+			{
+				av.getAttribute().setId(attributeId);
+				av.setAttributeId(attributeId);
+			}
+			else
+			{
+				String name = av.getAttribute().getName();
+				av.setAttribute(missing.computeIfAbsent(name.toLowerCase(), k -> new BuntataAttribute().setName(name)));
+			}
+		}
+
+		// Look for existing values of the requested attributes as well as duplicates within the request
+		Map<Long, List<BuntataAttributeValue>> existing = valueDao.getAllForNodes(nodeIds);
+		Map<Long, Set<Object>> requested = new HashMap<>();
+
+		for (BuntataAttributeValue av : values)
+		{
+			// New attributes can only be duplicated within the request, they're identified by their case-insensitive name
+			Object key = av.getAttributeId() != null ? av.getAttributeId() : av.getAttribute().getName().toLowerCase();
+
+			boolean isNew = requested.computeIfAbsent(av.getNodeId(), k ->
+			{
+				Set<Object> attributeIds = new HashSet<>();
+				existing.get(k).forEach(v -> attributeIds.add(v.getAttributeId()));
+				return attributeIds;
+			}).add(key);
+
+			if (!isNew)
+				throw new ResourceException(Status.CLIENT_ERROR_CONFLICT);
+		}
+
+		List<Long> result = registry.addAll(missing.values(), database ->
+		{
+			for (BuntataAttributeValue av : values)
+				av.setAttributeId(av.getAttribute().getId());
+
+			return valueDao.addAll(Arrays.asList(values), database);
+		});
+
+		if (result == null)
+			throw new ResourceException(Status.SERVER_ERROR_INTERNAL);
+
+		NodeSearchIndex.Inst.get().reindex(nodeIds);
+
+		return result;
+	}
+}
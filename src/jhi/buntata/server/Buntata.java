@@ -47,6 +47,9 @@ public class Buntata extends Application
 		setDescription("This is the server implementation for Buntata");
 		setOwner("The James Hutton Institute");
 		setAuthor("Sebastian Raubach, Information & Computational Sciences");
+
+		// Range requests are handled by FileChannelRepresentation
+		getRangeService().setEnabled(false);
 	}
 
 	private void setUpAuthentication(Context context)
@@ -69,7 +72,10 @@ public class Buntata extends Application
 		setUpAuthentication(context);
 
 		// Set the encoder
-		Filter encoder = new Encoder(context, false, true, new EncoderService(true));
+		EncoderService encoderService = new EncoderService(true);
+		// Partial content must not be compressed, the byte ranges refer to the original file
+		encoderService.getIgnoredMediaTypes().add(new MediaType("multipart/byteranges"));
+		Filter encoder = new Encoder(context, false, true, encoderService);
 
 		// Set the Cors filter
 		CorsFilter corsFilter = new CorsFilter(context, encoder)
@@ -106,6 +112,10 @@ public class Buntata extends Application
 		attachToRouter(routerAuth, "/datasource/{id}", Datasource.class);
 		attachToRouter(routerAuth, "/datasource/{id}/icon", DatasourceIcon.class);
 		attachToRouter(routerAuth, "/datasource/{id}/download", DatasourceDownload.class);
+		attachToRouter(routerAuth, "/export", Export.class);
+		attachToRouter(routerAuth, "/export/metrics", ExportMetrics.class);
+		attachToRouter(routerAuth, "/database/metrics", DatabaseMetrics.class);
+		attachToRouter(routerAuth, "/index/rebuild", IndexRebuild.class);
 
 		// Not currently used by the Buntata app
 		attachToRouter(routerAuth, "/datasource/{id}/nodes", DatasourceNodeList.class);
@@ -113,10 +123,17 @@ public class Buntata extends Application
 		attachToRouter(routerAuth, "/node", Node.class);
 		attachToRouter(routerAuth, "/node/{id}", Node.class);
 		attachToRouter(routerAuth, "/node/{id}/media", NodeMedia.class);
+		attachToRouter(routerAuth, "/node/{id}/attributes", NodeAttributes.class);
 		attachToRouter(routerAuth, "/relationship", Relationship.class);
 		attachToRouter(routerAuth, "/similarity", Similarity.class);
 		attachToRouter(routerAuth, "/attributevalue", AttributeValue.class);
 		attachToRouter(routerAuth, "/attributevalue/{id}", AttributeValue.class);
+		attachToRouter(routerAuth, "/bulk/node", NodeBulk.class);
+		attachToRouter(routerAuth, "/bulk/media", MediaBulk.class);
+		attachToRouter(routerAuth, "/bulk/nodemedia", NodeMediaBulk.class);
+		attachToRouter(routerAuth, "/bulk/relationship", RelationshipBulk.class);
+		attachToRouter(routerAuth, "/bulk/attributevalue", AttributeValueBulk.class);
+		attachToRouter(routerAuth, "/bulk/similarity", SimilarityBulk.class);
 
 		attachToRouter(routerUnauth, "/token", Token.class);
 
@@ -63,6 +63,8 @@ public class Datasource extends ServerResource
 			if (ds != null)
 			{
 				dao.delete(ds.getId());
+				RelationshipIndex.Inst.get().removeDatasource(ds.getId());
+				NodeSearchIndex.Inst.get().removeDatasource(ds.getId());
 				return true;
 			}
 			else
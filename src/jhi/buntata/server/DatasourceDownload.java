@@ -23,12 +23,14 @@ import org.restlet.representation.*;
 import org.restlet.resource.*;
 
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
-import javax.activation.*;
 import javax.servlet.*;
 
 import jhi.buntata.data.*;
 import jhi.buntata.resource.*;
+import jhi.buntata.server.io.*;
 import jhi.buntata.server.job.*;
 
 /**
@@ -38,13 +40,34 @@ import jhi.buntata.server.job.*;
  */
 public class DatasourceDownload extends ServerResource
 {
+	/** How long a download request waits for a running export before it's told to come back later */
+	private static final long WAIT_SECONDS        = 10;
+	/** The retry hint sent along with <code>202 Accepted</code> */
+	private static final long RETRY_AFTER_SECONDS = 30;
+
+	/** The response header containing the version of the export, clients send it back as {@link #PARAM_SINCE} to get a delta */
+	public static final String HEADER_VERSION = "Buntata-Export-Version";
+	/** The response header containing the type of the export, either {@link #TYPE_FULL} or {@link #TYPE_DELTA} */
+	public static final String HEADER_TYPE    = "Buntata-Export-Type";
+	public static final String TYPE_FULL      = "full";
+	public static final String TYPE_DELTA     = "delta";
+	public static final String PARAM_SINCE    = "since";
+
+	private static ExportCoordinator exportCoordinator;
+
 	private Long          id            = null;
 	private boolean       includeVideos = true;
+	private String        since         = null;
 	private DatasourceDAO dao           = new DatasourceDAO();
 
 	private ServletContext  servlet;
 	private GoogleAnalytics ga;
 
+	public static void setExportCoordinator(ExportCoordinator exportCoordinator)
+	{
+		DatasourceDownload.exportCoordinator = exportCoordinator;
+	}
+
 	@Override
 	public void doInit()
 	{
@@ -83,12 +106,15 @@ public class DatasourceDownload extends ServerResource
 		catch (NullPointerException e)
 		{
 		}
+
+		// The version of the export the client already has, if any
+		this.since = getQueryValue(PARAM_SINCE);
 	}
 
 	@Get
-	public FileRepresentation getFile()
+	public Representation getFile()
 	{
-		FileRepresentation representation = null;
+		Representation representation = null;
 
 		// Check if the id is set
 		if (id != null)
@@ -97,13 +123,67 @@ public class DatasourceDownload extends ServerResource
 
 			if (ds != null)
 			{
-				// Export the data to the SQLite file
-				File[] files = DatasourceExportJob.makeSureExists((ServletContext) getContext().getAttributes().get("org.restlet.ext.servlet.ServletContext"), ds);
+				// Export the data to the SQLite file, exports requested by users take priority over scheduled ones
+				File[] files;
+
+				try
+				{
+					files = exportCoordinator.request(ds, ExportCoordinator.Priority.USER).get(WAIT_SECONDS, TimeUnit.SECONDS);
+				}
+				catch (TimeoutException e)
+				{
+					// The export is still running, tell the client to try again later
+					getResponse().setStatus(org.restlet.data.Status.SUCCESS_ACCEPTED);
+					getResponse().setRetryAfter(new Date(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(RETRY_AFTER_SECONDS)));
+					return null;
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new ResourceException(503);
+				}
+				catch (ExecutionException e)
+				{
+					e.printStackTrace();
+					throw new ResourceException(500);
+				}
+
 				File file = includeVideos ? files[0] : files[1];
+				boolean delta = false;
+
+				// Send only what has changed if the client's version is still part of the history, otherwise fall back to the full export
+				if (file != null && since != null)
+				{
+					try
+					{
+						File deltaFile = exportCoordinator.getDelta(ds, since, includeVideos);
+
+						if (deltaFile != null)
+						{
+							file = deltaFile;
+							delta = true;
+						}
+					}
+					catch (IOException e)
+					{
+						e.printStackTrace();
+					}
+				}
+
+				// Keep the file from being deleted while it's being sent
+				ExportStore.Lease lease = file == null ? null : exportCoordinator.getStore().acquire(file);
+
+				if (file != null && lease == null)
+				{
+					// The file has been evicted in the meantime, it'll be exported again on the next request
+					getResponse().setRetryAfter(new Date(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(RETRY_AFTER_SECONDS)));
+					throw new ResourceException(503);
+				}
 
 				if (file != null)
 				{
-					if (ga != null)
+					// Only count the initial request, not every resumed part of the download
+					if (ga != null && getRequest().getRanges().isEmpty())
 					{
 						ga.event()
 						  .eventCategory("dataset")
@@ -112,15 +192,24 @@ public class DatasourceDownload extends ServerResource
 						  .sendAsync();
 					}
 
-					// Prepare the result
-					MimetypesFileTypeMap mimeTypesMap = new MimetypesFileTypeMap();
-					String mimeTypeStr = mimeTypesMap.getContentType(file);
-					MediaType mt = new MediaType(mimeTypeStr);
-					representation = new FileRepresentation(file, mt);
+					// Prepare the result, this supports resuming interrupted downloads via range requests
+					FileChannelRepresentation channelRepresentation = FileChannelRepresentation.create(getRequest(), getResponse(), file, MediaType.APPLICATION_ZIP, ds.getUpdatedOn());
+
+					if (channelRepresentation == null)
+					{
+						lease.release();
+						return null;
+					}
+
+					// Restlet releases the representation once it has been sent
+					representation = channelRepresentation.setReleaseHandler(lease::release);
+
+					getResponse().getHeaders().add(HEADER_VERSION, ExportCoordinator.getVersion(file));
+					getResponse().getHeaders().add(HEADER_TYPE, delta ? TYPE_DELTA : TYPE_FULL);
 
 					// Give it a name and set the size
 					Disposition disp = new Disposition(Disposition.TYPE_ATTACHMENT);
-					disp.setFilename("datasource-" + id + ".zip");
+					disp.setFilename("datasource-" + id + (delta ? "-delta" : "") + ".zip");
 					disp.setSize(file.length());
 					representation.setDisposition(disp);
 				}
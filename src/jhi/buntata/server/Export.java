@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server;
+
+import org.restlet.data.Status;
+import org.restlet.resource.*;
+
+import java.util.*;
+
+import jhi.buntata.server.job.*;
+
+/**
+ * {@link ServerResource} listing the queued, running and recent exports (see {@link ExportRecord}). Only available to authenticated users.
+ *
+ * @author Sebastian Raubach
+ */
+public class Export extends ServerResource
+{
+	public static final String PARAM_DATASOURCE = "datasource";
+
+	private static ExportCoordinator exportCoordinator;
+
+	private Long datasourceId = null;
+
+	public static void setExportCoordinator(ExportCoordinator exportCoordinator)
+	{
+		Export.exportCoordinator = exportCoordinator;
+	}
+
+	@Override
+	public void doInit()
+	{
+		super.doInit();
+
+		try
+		{
+			this.datasourceId = Long.parseLong(getQueryValue(PARAM_DATASOURCE));
+		}
+		catch (NullPointerException | NumberFormatException e)
+		{
+		}
+	}
+
+	@Get("json")
+	public List<ExportRecord> getJson()
+	{
+		if (!getClientInfo().isAuthenticated())
+			throw new ResourceException(Status.CLIENT_ERROR_UNAUTHORIZED);
+
+		return exportCoordinator.getRecords(datasourceId);
+	}
+}
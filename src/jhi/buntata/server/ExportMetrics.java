@@ -0,0 +1,49 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server;
+
+import org.restlet.data.*;
+import org.restlet.data.Status;
+import org.restlet.representation.*;
+import org.restlet.resource.*;
+
+import jhi.buntata.server.job.*;
+
+/**
+ * {@link ServerResource} exposing the export statistics (see {@link ExportStatistics}) in the Prometheus text format. Only available to
+ * authenticated users.
+ *
+ * @author Sebastian Raubach
+ */
+public class ExportMetrics extends ServerResource
+{
+	private static ExportCoordinator exportCoordinator;
+
+	public static void setExportCoordinator(ExportCoordinator exportCoordinator)
+	{
+		ExportMetrics.exportCoordinator = exportCoordinator;
+	}
+
+	@Get
+	public Representation getMetrics()
+	{
+		if (!getClientInfo().isAuthenticated())
+			throw new ResourceException(Status.CLIENT_ERROR_UNAUTHORIZED);
+
+		return new StringRepresentation(exportCoordinator.getMetrics(), MediaType.TEXT_PLAIN);
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server;
+
+import org.restlet.data.Status;
+import org.restlet.resource.*;
+
+import jhi.buntata.data.*;
+
+/**
+ * {@link ServerResource} rebuilding the in-memory indices from the database, e.g. after the database has been modified directly. Only available to
+ * authenticated users.
+ *
+ * @author Sebastian Raubach
+ */
+public class IndexRebuild extends ServerResource
+{
+	@Post("json")
+	public boolean postJson()
+	{
+		if (!getClientInfo().isAuthenticated())
+			throw new ResourceException(Status.CLIENT_ERROR_UNAUTHORIZED);
+
+		RelationshipIndex.Inst.get().rebuild();
+		NodeSearchIndex.Inst.get().rebuild();
+		MediaTypeRegistry.Inst.get().rebuild();
+		AttributeRegistry.Inst.get().rebuild();
+
+		return true;
+	}
+}
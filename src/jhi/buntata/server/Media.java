@@ -16,20 +16,20 @@
 
 package jhi.buntata.server;
 
-import net.coobird.thumbnailator.*;
-
 import org.restlet.data.*;
 import org.restlet.data.Status;
 import org.restlet.representation.*;
 import org.restlet.resource.*;
 
 import java.io.*;
+import java.util.*;
 import java.util.logging.*;
 
-import javax.servlet.*;
-
 import jhi.buntata.data.*;
 import jhi.buntata.resource.*;
+import jhi.buntata.server.image.*;
+import jhi.buntata.server.io.*;
+import jhi.buntata.server.job.*;
 
 /**
  * {@link ServerResource} handling {@link Media} requests.
@@ -38,13 +38,19 @@ import jhi.buntata.resource.*;
  */
 public class Media extends ServerResource
 {
-	private static String dataDir;
+	private static String                    dataDir;
+	private static ThumbnailService          thumbnailService;
+	private static DatasourceSizeAccumulator sizeAccumulator;
 
-	public static final String PARAM_SIZE = "small";
+	public static final String PARAM_SIZE   = "small";
+	public static final String PARAM_WIDTH  = "width";
+	public static final String PARAM_HEIGHT = "height";
 
-	private final MediaDAO dao   = new MediaDAO();
-	private       Long     id    = null;
-	private       boolean  small = false;
+	private final MediaDAO dao    = new MediaDAO();
+	private       Long     id     = null;
+	private       boolean  small  = false;
+	private       Integer  width  = null;
+	private       Integer  height = null;
 
 	@Override
 	public void doInit()
@@ -66,6 +72,22 @@ public class Media extends ServerResource
 		catch (NullPointerException e)
 		{
 		}
+
+		try
+		{
+			this.width = Integer.parseInt(getQueryValue(PARAM_WIDTH));
+		}
+		catch (NullPointerException | NumberFormatException e)
+		{
+		}
+
+		try
+		{
+			this.height = Integer.parseInt(getQueryValue(PARAM_HEIGHT));
+		}
+		catch (NullPointerException | NumberFormatException e)
+		{
+		}
 	}
 
 	@Delete("json")
@@ -81,7 +103,14 @@ public class Media extends ServerResource
 
 			if (media != null)
 			{
-				dao.delete(media.getId());
+				// The links to the nodes are removed along with the media, so find the affected data sources first
+				List<Long> datasourceIds = media.getInternalLink() == null ? Collections.emptyList() : new DatasourceDAO().getIdsForMediaFile(media);
+
+				boolean deleted = dao.delete(media.getId());
+
+				if (deleted && sizeAccumulator != null && media.getInternalLink() != null)
+					sizeAccumulator.publish(datasourceIds, media, new File(dataDir, media.getInternalLink()), false);
+
 				return true;
 			}
 			else
@@ -131,61 +160,36 @@ public class Media extends ServerResource
 	{
 		BuntataMedia media = dao.get(id);
 
-		FileRepresentation representation = null;
+		Representation representation = null;
 
 		if (media != null)
 		{
 			File file = new File(dataDir, media.getInternalLink());
 
-			// Check if the image exists
-			if (file.exists() && file.isFile() && media.getMediaTypeId() == 1)
+			boolean isImage = MediaTypeRegistry.Inst.get().is(media.getMediaTypeId(), BuntataMediaType.TYPE_IMAGE);
+			boolean isVideo = MediaTypeRegistry.Inst.get().is(media.getMediaTypeId(), BuntataMediaType.TYPE_VIDEO);
+
+			// Check if the image or video exists
+			if (file.exists() && file.isFile() && (isImage || isVideo))
 			{
 				try
 				{
-					MediaType type;
+					MediaType type = getMediaType(file, isVideo);
 
-					if (file.getName().toLowerCase().endsWith(".jpg"))
-						type = MediaType.IMAGE_JPEG;
-					else if (file.getName().toLowerCase().endsWith(".png"))
-						type = MediaType.IMAGE_PNG;
-					else
-						type = MediaType.IMAGE_ALL;
-
-					if (small)
+					// Videos are served as they are, only images have thumbnails
+					if (isImage)
 					{
-						ServletContext servlet = (ServletContext) getContext().getAttributes().get("org.restlet.ext.servlet.ServletContext");
-						String version = servlet.getInitParameter("version");
-						File folder = new File(System.getProperty("java.io.tmpdir"), "buntata-thumbnails" + "-" + version);
-						folder.mkdirs();
-
-						String extension = type == MediaType.IMAGE_PNG ? ".png" : ".jpg";
-
-						File target = new File(folder, media.getId() + "-small" + extension);
-
-						// Delete the thumbnail if it's older than the source image
-						if (target.lastModified() < file.lastModified())
-							target.delete();
-
-						// If it exists, fine, just return it
-						if (target.exists())
-						{
-							file = target;
-						}
-						// If not, create a new thumbnail
-						else
-						{
-							Thumbnails.of(file)
-									  .height(400)
-									  .keepAspectRatio(true)
-									  .toFile(target);
-
-							file = target;
-						}
+						// Get the requested variant, this waits for the generation if it doesn't exist yet
+						ThumbnailService.Variant variant = small ? ThumbnailService.Variant.DEFAULT : thumbnailService.getVariant(width, height);
+
+						if (variant != null)
+							file = thumbnailService.getThumbnail(media, file, variant);
 					}
 
-					representation = new FileRepresentation(file, type);
-					representation.setSize(file.length());
-					representation.setDisposition(new Disposition(Disposition.TYPE_ATTACHMENT));
+					representation = FileChannelRepresentation.create(getRequest(), getResponse(), file, type, media.getUpdatedOn());
+
+					if (representation != null)
+						representation.setDisposition(new Disposition(Disposition.TYPE_ATTACHMENT));
 				}
 				catch (IOException e)
 				{
@@ -205,8 +209,48 @@ public class Media extends ServerResource
 		return representation;
 	}
 
+	private static MediaType getMediaType(File file, boolean isVideo)
+	{
+		String name = file.getName().toLowerCase();
+
+		if (isVideo)
+		{
+			if (name.endsWith(".mp4") || name.endsWith(".m4v"))
+				return MediaType.VIDEO_MP4;
+			else if (name.endsWith(".mov"))
+				return MediaType.VIDEO_QUICKTIME;
+			else if (name.endsWith(".mpg") || name.endsWith(".mpeg"))
+				return MediaType.VIDEO_MPEG;
+			else if (name.endsWith(".avi"))
+				return MediaType.VIDEO_AVI;
+			else if (name.endsWith(".wmv"))
+				return MediaType.VIDEO_WMV;
+			else
+				return MediaType.VIDEO_ALL;
+		}
+		else
+		{
+			if (name.endsWith(".jpg"))
+				return MediaType.IMAGE_JPEG;
+			else if (name.endsWith(".png"))
+				return MediaType.IMAGE_PNG;
+			else
+				return MediaType.IMAGE_ALL;
+		}
+	}
+
 	public static void setDataDir(String dataDir)
 	{
 		Media.dataDir = dataDir;
 	}
+
+	public static void setThumbnailService(ThumbnailService thumbnailService)
+	{
+		Media.thumbnailService = thumbnailService;
+	}
+
+	public static void setSizeAccumulator(DatasourceSizeAccumulator sizeAccumulator)
+	{
+		Media.sizeAccumulator = sizeAccumulator;
+	}
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server;
+
+import org.restlet.data.Status;
+import org.restlet.resource.*;
+
+import java.util.*;
+
+import jhi.buntata.data.*;
+import jhi.buntata.resource.*;
+
+/**
+ * {@link ServerResource} adding many {@link BuntataMedia} objects at once. All media objects are written in a single transaction, the ids are
+ * returned in the order of the request. The files themselves are uploaded via {@link NodeMedia}.
+ *
+ * @author Sebastian Raubach
+ */
+public class MediaBulk extends ServerResource
+{
+	private final MediaDAO dao = new MediaDAO();
+
+	@Post("json")
+	public List<Long> postJson(BuntataMedia[] media)
+	{
+		if (media == null || media.length < 1)
+			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST);
+
+		List<Long> result = dao.addAll(Arrays.asList(media));
+
+		if (result == null)
+			throw new ResourceException(Status.SERVER_ERROR_INTERNAL);
+
+		return result;
+	}
+}
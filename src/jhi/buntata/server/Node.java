@@ -34,12 +34,17 @@ public class Node extends ServerResource
 	public static final String PARAM_DATASOURCE_ID  = "datasourceId";
 	public static final String PARAM_NODE_PARENT_ID = "nodeParentId";
 	public static final String PARAM_SEARCH_TERM    = "searchTerm";
+	public static final String PARAM_LIMIT          = "limit";
+
+	private static final int DEFAULT_SEARCH_LIMIT = 100;
+	private static final int MAX_SEARCH_LIMIT     = 1000;
 
 	private final NodeDAO dao          = new NodeDAO();
 	private       Long    id           = null;
 	private       Long    datasourceId = null;
 	private       Long    nodeParentId = null;
 	private       String  searchTerm   = null;
+	private       int     limit        = DEFAULT_SEARCH_LIMIT;
 
 	@Override
 	public void doInit()
@@ -71,6 +76,20 @@ public class Node extends ServerResource
 		}
 
 		searchTerm = getQueryValue(PARAM_SEARCH_TERM);
+
+		String limitValue = getQueryValue(PARAM_LIMIT);
+
+		if (limitValue != null)
+		{
+			try
+			{
+				limit = Math.min(MAX_SEARCH_LIMIT, Math.max(1, Integer.parseInt(limitValue)));
+			}
+			catch (NumberFormatException e)
+			{
+				throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST);
+			}
+		}
 	}
 
 	@Post("json")
@@ -79,7 +98,7 @@ public class Node extends ServerResource
 		if (id != null)
 			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST);
 		else
-			return dao.add(node);
+			return add(node);
 	}
 
 	@Put("json")
@@ -96,15 +115,29 @@ public class Node extends ServerResource
 			if (nd != null)
 			{
 				dao.update(node);
+				NodeSearchIndex.Inst.get().reindex(node.getId());
 				return node.getId();
 			}
 			else
 			{
-				return dao.add(node);
+				return add(node);
 			}
 		}
 	}
 
+	private Long add(BuntataNode node)
+	{
+		Long result = dao.add(node);
+
+		if (result != null)
+		{
+			RelationshipIndex.Inst.get().addNode(node);
+			NodeSearchIndex.Inst.get().reindex(result);
+		}
+
+		return result;
+	}
+
 	@Get("json")
 	public List<BuntataNode> getJson()
 	{
@@ -122,7 +155,7 @@ public class Node extends ServerResource
 		else if (searchTerm != null)
 		{
 			if (datasourceId != null)
-				result.addAll(dao.getAllForSearch(datasourceId, searchTerm));
+				result.addAll(dao.getAllForSearch(datasourceId, searchTerm, limit));
 			else
 				throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST);
 		}
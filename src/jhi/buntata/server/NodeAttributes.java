@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server;
+
+import org.restlet.data.Status;
+import org.restlet.resource.*;
+
+import java.util.*;
+
+import jhi.buntata.data.*;
+import jhi.buntata.resource.*;
+
+/**
+ * {@link ServerResource} setting all {@link BuntataAttributeValue}s of a {@link BuntataNode} at once. The request body maps attribute names to
+ * values, attributes that don't exist yet are created. Values of attributes that aren't part of the request are left alone.
+ *
+ * @author Sebastian Raubach
+ */
+public class NodeAttributes extends ServerResource
+{
+	private final NodeDAO           nodeDao  = new NodeDAO();
+	private final AttributeValueDAO valueDao = new AttributeValueDAO();
+	private       Long              id       = null;
+
+	@Override
+	public void doInit()
+	{
+		super.doInit();
+
+		try
+		{
+			this.id = Long.parseLong(getRequestAttributes().get("id").toString());
+		}
+		catch (NullPointerException | NumberFormatException e)
+		{
+		}
+	}
+
+	@Put("json")
+	public boolean putJson(Map<String, Object> attributes)
+	{
+		if (id == null || attributes == null || attributes.isEmpty())
+			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST);
+		if (!nodeDao.exists(id))
+			throw new ResourceException(Status.CLIENT_ERROR_NOT_FOUND);
+
+		Map<Long, String> values = new LinkedHashMap<>();
+
+		for (Map.Entry<String, Object> attribute : attributes.entrySet())
+		{
+			if (attribute.getKey() == null || attribute.getValue() == null)
+				throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST);
+
+			Long attributeId = AttributeRegistry.Inst.get().getOrAdd(new BuntataAttribute().setName(attribute.getKey()));
+
+			if (attributeId == null)
+				throw new ResourceException(Status.SERVER_ERROR_INTERNAL);
+
+			// Numbers and booleans are stored as text like any other value
+			values.put(attributeId, attribute.getValue().toString());
+		}
+
+		if (!valueDao.upsertAll(id, values))
+			throw new ResourceException(Status.SERVER_ERROR_INTERNAL);
+
+		NodeSearchIndex.Inst.get().reindex(id);
+
+		return true;
+	}
+}
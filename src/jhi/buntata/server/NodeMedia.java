@@ -30,6 +30,8 @@ import java.util.*;
 
 import jhi.buntata.data.*;
 import jhi.buntata.resource.*;
+import jhi.buntata.server.image.*;
+import jhi.buntata.server.job.*;
 
 /**
  * {@link ServerResource} handling {@link NodeDAO} {@link BuntataMedia} object requests.
@@ -38,7 +40,9 @@ import jhi.buntata.resource.*;
  */
 public class NodeMedia extends ServerResource
 {
-	private static String dataDir;
+	private static String                    dataDir;
+	private static ThumbnailService          thumbnailService;
+	private static DatasourceSizeAccumulator sizeAccumulator;
 
 	private final NodeDAO      nodeDAO      = new NodeDAO();
 	private final MediaDAO     mediaDAO     = new MediaDAO();
@@ -105,6 +109,14 @@ public class NodeMedia extends ServerResource
 						.setMediaId(media.getId())
 						.setNodeId(node.getId()));
 
+					// The new file has a unique name, so it adds to the size of the data source
+					if (sizeAccumulator != null)
+						sizeAccumulator.publish(Collections.singletonList(node.getDatasourceId()), media, file, true);
+
+					// Generate the thumbnail in the background so that the first request doesn't have to wait for it
+					if (thumbnailService != null && media.getId() != null)
+						thumbnailService.submit(media, file);
+
 					return true;
 				}
 			}
@@ -142,4 +154,14 @@ public class NodeMedia extends ServerResource
 	{
 		NodeMedia.dataDir = dataDir;
 	}
+
+	public static void setThumbnailService(ThumbnailService thumbnailService)
+	{
+		NodeMedia.thumbnailService = thumbnailService;
+	}
+
+	public static void setSizeAccumulator(DatasourceSizeAccumulator sizeAccumulator)
+	{
+		NodeMedia.sizeAccumulator = sizeAccumulator;
+	}
 }
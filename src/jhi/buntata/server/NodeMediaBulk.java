@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server;
+
+import org.restlet.data.Status;
+import org.restlet.resource.*;
+
+import java.io.*;
+import java.util.*;
+
+import jhi.buntata.data.*;
+import jhi.buntata.resource.*;
+import jhi.buntata.server.job.*;
+
+/**
+ * {@link ServerResource} linking many {@link BuntataMedia} objects to {@link BuntataNode}s at once. All links are written in a single
+ * transaction, the ids are returned in the order of the request. Files that are new to a data source are added to its size once the links have
+ * been written.
+ *
+ * @author Sebastian Raubach
+ */
+public class NodeMediaBulk extends ServerResource
+{
+	private static String                    dataDir;
+	private static DatasourceSizeAccumulator sizeAccumulator;
+
+	private final NodeDAO      nodeDao      = new NodeDAO();
+	private final MediaDAO     mediaDao     = new MediaDAO();
+	private final NodeMediaDAO nodeMediaDao = new NodeMediaDAO();
+
+	@Post("json")
+	public List<Long> postJson(BuntataNodeMedia[] links)
+	{
+		if (links == null || links.length < 1)
+			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST);
+
+		// The files that are already part of the data sources have to be known before the links are written
+		Map<Long, Long> datasourceIds = null;
+		Map<Long, Set<String>> files = null;
+
+		if (sizeAccumulator != null)
+		{
+			Set<Long> nodeIds = new HashSet<>();
+			Arrays.stream(links).forEach(l -> nodeIds.add(l.getNodeId()));
+
+			datasourceIds = nodeDao.getDatasourceIds(nodeIds);
+			files = mediaDao.getInternalLinksForDatasources(new HashSet<>(datasourceIds.values()));
+		}
+
+		List<Long> result = nodeMediaDao.addAll(Arrays.asList(links));
+
+		if (result == null)
+			throw new ResourceException(Status.SERVER_ERROR_INTERNAL);
+
+		if (sizeAccumulator != null)
+			publishSizes(links, datasourceIds, files);
+
+		return result;
+	}
+
+	/**
+	 * Publishes the size changes caused by the given links. Like in {@link DatasourceSizeJob}, each file only counts once
+	 * per data source, so only files that haven't been part of the data source before add to its size.
+	 */
+	private void publishSizes(BuntataNodeMedia[] links, Map<Long, Long> datasourceIds, Map<Long, Set<String>> files)
+	{
+		Set<Long> mediaIds = new HashSet<>();
+		Arrays.stream(links).forEach(l -> mediaIds.add(l.getMediaId()));
+
+		Map<Long, BuntataMedia> media = mediaDao.getByIds(mediaIds);
+
+		for (BuntataNodeMedia link : links)
+		{
+			Long datasourceId = datasourceIds.get(link.getNodeId());
+			BuntataMedia m = media.get(link.getMediaId());
+
+			if (datasourceId == null || m == null || m.getInternalLink() == null)
+				continue;
+			if (!MediaTypeRegistry.Inst.get().is(m.getMediaTypeId(), BuntataMediaType.TYPE_IMAGE) && !MediaTypeRegistry.Inst.get().is(m.getMediaTypeId(), BuntataMediaType.TYPE_VIDEO))
+				continue;
+
+			if (files.computeIfAbsent(datasourceId, k -> new HashSet<>()).add(m.getInternalLink()))
+				sizeAccumulator.publish(Collections.singletonList(datasourceId), m, new File(dataDir, m.getInternalLink()), true);
+		}
+	}
+
+	public static void setDataDir(String dataDir)
+	{
+		NodeMediaBulk.dataDir = dataDir;
+	}
+
+	public static void setSizeAccumulator(DatasourceSizeAccumulator sizeAccumulator)
+	{
+		NodeMediaBulk.sizeAccumulator = sizeAccumulator;
+	}
+}
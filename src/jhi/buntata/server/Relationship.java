@@ -41,7 +41,12 @@ public class Relationship extends ServerResource
 		}
 		else
 		{
-			return dao.add(relationship);
+			Long result = dao.add(relationship);
+
+			if (result != null)
+				RelationshipIndex.Inst.get().addRelationship(relationship);
+
+			return result;
 		}
 	}
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server;
+
+import org.restlet.data.Status;
+import org.restlet.resource.*;
+
+import java.util.*;
+
+import jhi.buntata.data.*;
+import jhi.buntata.resource.*;
+
+/**
+ * {@link ServerResource} adding many {@link BuntataRelationship}s at once. All relationships are written in a single transaction, the ids are
+ * returned in the order of the request. If any of them already exists (or is part of the request twice), nothing is written.
+ *
+ * @author Sebastian Raubach
+ */
+public class RelationshipBulk extends ServerResource
+{
+	private final RelationshipDAO dao = new RelationshipDAO();
+
+	@Post("json")
+	public List<Long> postJson(BuntataRelationship[] relationships)
+	{
+		if (relationships == null || relationships.length < 1)
+			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST);
+
+		RelationshipIndex index = RelationshipIndex.Inst.get();
+		Map<Long, Set<Long>> requested = new HashMap<>();
+
+		for (BuntataRelationship relationship : relationships)
+		{
+			if (relationship.getParent() == null || relationship.getChild() == null)
+				throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST);
+
+			boolean isNew = requested.computeIfAbsent(relationship.getParent(), k -> new HashSet<>(index.getChildren(k)))
+									 .add(relationship.getChild());
+
+			if (!isNew)
+				throw new ResourceException(Status.CLIENT_ERROR_CONFLICT);
+		}
+
+		List<Long> result = dao.addAll(Arrays.asList(relationships));
+
+		if (result == null)
+			throw new ResourceException(Status.SERVER_ERROR_INTERNAL);
+
+		for (BuntataRelationship relationship : relationships)
+			index.addRelationship(relationship);
+
+		return result;
+	}
+}
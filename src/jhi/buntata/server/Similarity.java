@@ -34,6 +34,9 @@ import jhi.buntata.resource.*;
  */
 public class Similarity extends ServerResource
 {
+	/** {@link ObjectMapper}s are expensive to create, but thread-safe once configured */
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
 	private final SimilarityDAO dao = new SimilarityDAO();
 
 	@Delete("json")
@@ -66,18 +69,29 @@ public class Similarity extends ServerResource
 		{
 		}, json);
 
-		boolean atLeastOne = false;
+		if (similarities == null || similarities.isEmpty())
+			return false;
+
+		return add(dao, similarities).getInserted() > 0;
+	}
 
+	/**
+	 * Adds the given {@link BuntataSimilarity}s, skipping the ones that already exist (see {@link SimilarityDAO#addAllIgnoringDuplicates(Collection)}).
+	 */
+	static SimilarityDAO.InsertResult add(SimilarityDAO dao, Collection<BuntataSimilarity> similarities)
+	{
 		for (BuntataSimilarity similarity : similarities)
 		{
-			BuntataSimilarity r = dao.getFor(similarity.getNodeAId(), similarity.getNodeBId());
-			if (r == null)
-			{
-				atLeastOne |= (dao.add(similarity) != null);
-			}
+			if (similarity == null || similarity.getNodeAId() == null || similarity.getNodeBId() == null)
+				throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST);
 		}
 
-		return atLeastOne;
+		SimilarityDAO.InsertResult result = dao.addAllIgnoringDuplicates(similarities);
+
+		if (result == null)
+			throw new ResourceException(Status.SERVER_ERROR_INTERNAL);
+
+		return result;
 	}
 
 	public static <T> T fromJSON(final TypeReference<T> type, final String jsonPacket)
@@ -86,7 +100,7 @@ public class Similarity extends ServerResource
 
 		try
 		{
-			data = new ObjectMapper().readValue(jsonPacket, type);
+			data = MAPPER.readValue(jsonPacket, type);
 		}
 		catch (Exception e)
 		{
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server;
+
+import org.restlet.data.Status;
+import org.restlet.resource.*;
+
+import java.util.*;
+
+import jhi.buntata.data.*;
+import jhi.buntata.resource.*;
+
+/**
+ * {@link ServerResource} adding many {@link BuntataSimilarity}s at once, e.g. a whole similarity matrix. Pairs that already exist or are part of
+ * the request more than once are skipped. Returns the number of inserted and skipped pairs.
+ *
+ * @author Sebastian Raubach
+ */
+public class SimilarityBulk extends ServerResource
+{
+	private final SimilarityDAO dao = new SimilarityDAO();
+
+	@Post("json")
+	public SimilarityDAO.InsertResult postJson(BuntataSimilarity[] similarities)
+	{
+		if (similarities == null || similarities.length < 1)
+			throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST);
+
+		return Similarity.add(dao, Arrays.asList(similarities));
+	}
+}
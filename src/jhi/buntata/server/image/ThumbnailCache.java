@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server.image;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * {@link ThumbnailCache} keeps track of the files in the thumbnail folder and makes sure their total size stays within a byte budget. Whenever
+ * the budget is exceeded, the least recently accessed files are deleted until the total size drops below {@link #LOW_WATER_MARK} of the budget.
+ * The index is rebuilt from the folder content on startup.
+ *
+ * @author Sebastian Raubach
+ */
+public class ThumbnailCache
+{
+	/** Evict down to this fraction of the budget so that we don't evict on every single addition */
+	private static final double LOW_WATER_MARK = 0.9;
+
+	private final File                         folder;
+	private final long                         maxBytes;
+	private final ConcurrentMap<String, Entry> entries   = new ConcurrentHashMap<>();
+	private final AtomicLong                   totalSize = new AtomicLong();
+
+	/**
+	 * Creates a new {@link ThumbnailCache}
+	 *
+	 * @param folder   The folder containing the cached files
+	 * @param maxBytes The maximal total size of all cached files in bytes
+	 */
+	public ThumbnailCache(File folder, long maxBytes)
+	{
+		this.folder = folder;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * (Re-)builds the index from the files in the folder. Temporary files left behind by an interrupted generation are deleted.
+	 */
+	public synchronized void rebuild()
+	{
+		entries.clear();
+		totalSize.set(0);
+
+		File[] files = folder.listFiles();
+
+		if (files == null)
+			return;
+
+		for (File file : files)
+		{
+			if (!file.isFile())
+				continue;
+
+			if (ThumbnailService.isTemporary(file))
+			{
+				file.delete();
+				continue;
+			}
+
+			try
+			{
+				BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+
+				// Many file systems don't update the access time, so use whichever is more recent
+				long lastAccess = Math.max(attributes.lastAccessTime().toMillis(), attributes.lastModifiedTime().toMillis());
+
+				entries.put(file.getName(), new Entry(attributes.size(), lastAccess));
+				totalSize.addAndGet(attributes.size());
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		evict();
+	}
+
+	/**
+	 * Marks the given file as accessed.
+	 *
+	 * @param file The accessed file
+	 */
+	public void touch(File file)
+	{
+		Entry entry = entries.get(file.getName());
+
+		if (entry != null)
+			entry.lastAccess = System.currentTimeMillis();
+		else
+			put(file);
+	}
+
+	/**
+	 * Adds the given (newly generated) file to the cache and evicts old files if the budget is exceeded.
+	 *
+	 * @param file The new file
+	 */
+	public void put(File file)
+	{
+		long size = file.length();
+		Entry old = entries.put(file.getName(), new Entry(size, System.currentTimeMillis()));
+
+		totalSize.addAndGet(size - (old == null ? 0 : old.size));
+
+		if (totalSize.get() > maxBytes)
+			evict();
+	}
+
+	/**
+	 * Returns the total size of all cached files in bytes.
+	 *
+	 * @return The total size of all cached files in bytes
+	 */
+	public long getTotalSize()
+	{
+		return totalSize.get();
+	}
+
+	/**
+	 * Checks whether the cache has reached the size it's evicted down to. Adding more files beyond this point evicts files that are in use.
+	 *
+	 * @return <code>true</code> if the total size is at or above {@link #LOW_WATER_MARK} of the budget
+	 */
+	public boolean isFull()
+	{
+		return totalSize.get() >= (long) (maxBytes * LOW_WATER_MARK);
+	}
+
+	private synchronized void evict()
+	{
+		if (totalSize.get() <= maxBytes)
+			return;
+
+		List<Map.Entry<String, Entry>> candidates = new ArrayList<>(entries.entrySet());
+		candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+
+		long target = (long) (maxBytes * LOW_WATER_MARK);
+
+		for (Map.Entry<String, Entry> candidate : candidates)
+		{
+			if (totalSize.get() <= target)
+				break;
+
+			File file = new File(folder, candidate.getKey());
+
+			if ((!file.exists() || file.delete()) && entries.remove(candidate.getKey(), candidate.getValue()))
+				totalSize.addAndGet(-candidate.getValue().size);
+		}
+	}
+
+	private static class Entry
+	{
+		private final    long size;
+		private volatile long lastAccess;
+
+		private Entry(long size, long lastAccess)
+		{
+			this.size = size;
+			this.lastAccess = lastAccess;
+		}
+	}
+}
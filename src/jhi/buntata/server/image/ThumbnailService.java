@@ -0,0 +1,331 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server.image;
+
+import net.coobird.thumbnailator.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import jhi.buntata.resource.*;
+
+/**
+ * {@link ThumbnailService} generates the resized variants of {@link BuntataMedia} images. Requested sizes are snapped to a fixed set of sizes so
+ * that only a bounded number of variants exists per image. Generation runs on a fixed-size worker pool to cap CPU and memory usage, only one
+ * generation per variant is in flight at any time (concurrent requests wait for the same result) and variants are written to a temporary file
+ * first and then atomically moved into place. The total size of all variants is kept within a budget by a {@link ThumbnailCache}.
+ *
+ * @author Sebastian Raubach
+ */
+public class ThumbnailService
+{
+	public static final  int    DEFAULT_HEIGHT  = 400;
+	public static final  int[]  DEFAULT_SIZES   = {100, 200, 400, 800, 1200};
+	private static final long   TIMEOUT_SECONDS = 60;
+	private static final String TEMP_PREFIX     = ".tmp-";
+
+	private final File                                           folder;
+	private final int[]                                          sizes;
+	private final ThumbnailCache                                 cache;
+	private final ExecutorService                                executor;
+	private final ConcurrentMap<String, CompletableFuture<File>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a new {@link ThumbnailService}
+	 *
+	 * @param folder   The folder to store the variants in
+	 * @param threads  The number of worker threads
+	 * @param sizes    The allowed sizes in pixels, requested sizes are snapped to these
+	 * @param maxBytes The maximal total size of all variants in bytes
+	 */
+	public ThumbnailService(File folder, int threads, int[] sizes, long maxBytes)
+	{
+		this.folder = folder;
+		this.folder.mkdirs();
+
+		this.sizes = (sizes == null || sizes.length < 1) ? DEFAULT_SIZES.clone() : sizes.clone();
+		Arrays.sort(this.sizes);
+
+		this.cache = new ThumbnailCache(folder, maxBytes);
+		this.cache.rebuild();
+
+		AtomicInteger counter = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(threads, r ->
+		{
+			Thread thread = new Thread(r, "buntata-thumbnail-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns the {@link Variant} for the requested width or height, snapped to the smallest allowed size that is at least as large as the
+	 * requested one (or the largest allowed size). The height takes precedence if both are given.
+	 *
+	 * @param width  The requested width or <code>null</code>
+	 * @param height The requested height or <code>null</code>
+	 * @return The {@link Variant} or <code>null</code> if neither is given
+	 */
+	public Variant getVariant(Integer width, Integer height)
+	{
+		if (height != null && height > 0)
+			return new Variant(Variant.Dimension.HEIGHT, snap(height));
+		else if (width != null && width > 0)
+			return new Variant(Variant.Dimension.WIDTH, snap(width));
+		else
+			return null;
+	}
+
+	/**
+	 * Returns the thumbnail of the given {@link BuntataMedia}, i.e. the variant with a height of {@link #DEFAULT_HEIGHT}.
+	 *
+	 * @see #getThumbnail(BuntataMedia, File, Variant)
+	 */
+	public File getThumbnail(BuntataMedia media, File source)
+		throws IOException
+	{
+		return getThumbnail(media, source, Variant.DEFAULT);
+	}
+
+	/**
+	 * Returns the given {@link Variant} of the given {@link BuntataMedia}, generating it if it doesn't exist yet or if it is older than the source
+	 * image. This blocks until the variant is available.
+	 *
+	 * @param media   The {@link BuntataMedia}
+	 * @param source  The source image
+	 * @param variant The {@link Variant}
+	 * @return The variant {@link File}
+	 * @throws IOException Thrown if the generation fails or takes too long
+	 */
+	public File getThumbnail(BuntataMedia media, File source, Variant variant)
+		throws IOException
+	{
+		File target = getTarget(media, source, variant);
+
+		// If it exists and is up to date, fine, just return it
+		if (isUpToDate(target, source))
+		{
+			cache.touch(target);
+			return target;
+		}
+
+		try
+		{
+			return submit(media, source, variant).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new IOException(e.getCause());
+		}
+		catch (TimeoutException e)
+		{
+			throw new IOException("Thumbnail generation timed out: " + source.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Schedules the generation of the thumbnail of the given {@link BuntataMedia}.
+	 *
+	 * @see #submit(BuntataMedia, File, Variant)
+	 */
+	public CompletableFuture<File> submit(BuntataMedia media, File source)
+	{
+		return submit(media, source, Variant.DEFAULT);
+	}
+
+	/**
+	 * Schedules the generation of the given {@link Variant} of the given {@link BuntataMedia} unless a generation for it is already in flight, in
+	 * which case the existing {@link Future} is returned.
+	 *
+	 * @param media   The {@link BuntataMedia}
+	 * @param source  The source image
+	 * @param variant The {@link Variant}
+	 * @return A {@link CompletableFuture} that completes with the variant {@link File}
+	 */
+	public CompletableFuture<File> submit(BuntataMedia media, File source, Variant variant)
+	{
+		File target = getTarget(media, source, variant);
+		String key = target.getName();
+
+		CompletableFuture<File> future = new CompletableFuture<>();
+		CompletableFuture<File> existing = inFlight.putIfAbsent(key, future);
+
+		if (existing != null)
+			return existing;
+
+		try
+		{
+			executor.execute(() ->
+			{
+				try
+				{
+					// Check again, someone else may have finished it in the meantime
+					if (!isUpToDate(target, source))
+					{
+						generate(source, target, variant);
+						cache.put(target);
+					}
+
+					future.complete(target);
+				}
+				catch (Throwable e)
+				{
+					future.completeExceptionally(e);
+				}
+				finally
+				{
+					inFlight.remove(key, future);
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			inFlight.remove(key, future);
+			future.completeExceptionally(e);
+		}
+
+		return future;
+	}
+
+	/**
+	 * Checks whether the thumbnail of the given {@link BuntataMedia} is missing or older than the source image.
+	 *
+	 * @param media  The {@link BuntataMedia}
+	 * @param source The source image
+	 * @return <code>true</code> if the thumbnail has to be (re-)generated
+	 */
+	public boolean needsUpdate(BuntataMedia media, File source)
+	{
+		return !isUpToDate(getTarget(media, source, Variant.DEFAULT), source);
+	}
+
+	/**
+	 * Checks whether the cache is (nearly) full, see {@link ThumbnailCache#isFull()}. Warming up more thumbnails would only evict others.
+	 *
+	 * @return <code>true</code> if the cache is full
+	 */
+	public boolean isCacheFull()
+	{
+		return cache.isFull();
+	}
+
+	/**
+	 * Stops all worker threads.
+	 */
+	public void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	static boolean isTemporary(File file)
+	{
+		return file.getName().startsWith(TEMP_PREFIX);
+	}
+
+	private int snap(int requested)
+	{
+		for (int size : sizes)
+		{
+			if (size >= requested)
+				return size;
+		}
+
+		return sizes[sizes.length - 1];
+	}
+
+	private File getTarget(BuntataMedia media, File source, Variant variant)
+	{
+		String extension = source.getName().toLowerCase().endsWith(".png") ? ".png" : ".jpg";
+
+		return new File(folder, media.getId() + "-" + variant + extension);
+	}
+
+	private boolean isUpToDate(File target, File source)
+	{
+		return target.exists() && target.lastModified() >= source.lastModified();
+	}
+
+	private void generate(File source, File target, Variant variant)
+		throws IOException
+	{
+		String name = target.getName();
+		File temp = File.createTempFile(TEMP_PREFIX + name.substring(0, name.lastIndexOf('.')) + "-", name.substring(name.lastIndexOf('.')), folder);
+
+		try
+		{
+			Thumbnails.Builder<File> builder = Thumbnails.of(source);
+
+			if (variant.dimension == Variant.Dimension.HEIGHT)
+				builder.height(variant.size);
+			else
+				builder.width(variant.size);
+
+			builder.keepAspectRatio(true)
+				   .toFile(temp);
+
+			try
+			{
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e)
+			{
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally
+		{
+			temp.delete();
+		}
+	}
+
+	/**
+	 * A {@link Variant} describes a resized version of an image that is constrained either in height or width.
+	 */
+	public static class Variant
+	{
+		public static final Variant DEFAULT = new Variant(Dimension.HEIGHT, DEFAULT_HEIGHT);
+
+		public enum Dimension
+		{
+			HEIGHT,
+			WIDTH
+		}
+
+		private final Dimension dimension;
+		private final int       size;
+
+		public Variant(Dimension dimension, int size)
+		{
+			this.dimension = dimension;
+			this.size = size;
+		}
+
+		@Override
+		public String toString()
+		{
+			return (dimension == Dimension.HEIGHT ? "h" : "w") + size;
+		}
+	}
+}
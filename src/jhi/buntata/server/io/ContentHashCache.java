@@ -0,0 +1,204 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server.io;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * {@link ContentHashCache} computes the SHA-256 hashes of files that are served to clients and uses them as entity tags. Hashes are cached and
+ * only recomputed if the size or modification date of the file changes. Large files (videos) would hold up the first request while they're being
+ * hashed, so {@link #getHashIfPresent(File)} computes missing hashes in the background instead.
+ *
+ * @author Sebastian Raubach
+ */
+public class ContentHashCache
+{
+	private static final int MAX_ENTRIES = 10000;
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+	private final Set<String>                  pending = ConcurrentHashMap.newKeySet();
+	private final ExecutorService              executor;
+
+	public static final class Inst
+	{
+		/**
+		 * {@link InstanceHolder} is loaded on the first execution of {@link Inst#get()} or the first access to {@link InstanceHolder#INSTANCE},
+		 * not before.
+		 * <p/>
+		 * This solution (<a href= "http://en.wikipedia.org/wiki/Initialization_on_demand_holder_idiom" >Initialization-on-demand holder
+		 * idiom</a>) is thread-safe without requiring special language constructs (i.e. <code>volatile</code> or <code>synchronized</code>).
+		 *
+		 * @author Sebastian Raubach
+		 */
+		private static final class InstanceHolder
+		{
+			private static final ContentHashCache INSTANCE = new ContentHashCache();
+		}
+
+		public static ContentHashCache get()
+		{
+			return InstanceHolder.INSTANCE;
+		}
+	}
+
+	private ContentHashCache()
+	{
+		this.executor = Executors.newSingleThreadExecutor(r ->
+		{
+			Thread thread = new Thread(r, "buntata-content-hash");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns the hex encoded SHA-256 hash of the content of the given {@link File} if it has already been computed for the current version of
+	 * the file. Otherwise, the hash is computed in the background and <code>null</code> is returned.
+	 *
+	 * @param file The {@link File}
+	 * @return The hex encoded SHA-256 hash or <code>null</code> if it isn't available yet
+	 */
+	public String getHashIfPresent(File file)
+	{
+		String key = file.getAbsolutePath();
+
+		Entry entry = entries.get(key);
+
+		if (entry != null && entry.length == file.length() && entry.lastModified == file.lastModified())
+			return entry.hash;
+
+		if (pending.add(key))
+		{
+			try
+			{
+				executor.execute(() ->
+				{
+					try
+					{
+						getHash(file);
+					}
+					catch (IOException e)
+					{
+						e.printStackTrace();
+					}
+					finally
+					{
+						pending.remove(key);
+					}
+				});
+			}
+			catch (RejectedExecutionException e)
+			{
+				pending.remove(key);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the hex encoded SHA-256 hash of the content of the given {@link File}.
+	 *
+	 * @param file The {@link File}
+	 * @return The hex encoded SHA-256 hash
+	 * @throws IOException Thrown if reading the file fails
+	 */
+	public String getHash(File file)
+		throws IOException
+	{
+		String key = file.getAbsolutePath();
+		long length = file.length();
+		long lastModified = file.lastModified();
+
+		Entry entry = entries.get(key);
+
+		if (entry != null && entry.length == length && entry.lastModified == lastModified)
+			return entry.hash;
+
+		String hash = compute(file);
+
+		// Don't let the cache grow forever, files come and go with every export
+		if (entries.size() >= MAX_ENTRIES)
+			entries.clear();
+
+		entries.put(key, new Entry(length, lastModified, hash));
+
+		return hash;
+	}
+
+	/**
+	 * Stops the background computation of hashes.
+	 */
+	public void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	private static String compute(File file)
+		throws IOException
+	{
+		MessageDigest digest;
+
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IOException(e);
+		}
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+			while (channel.read(buffer) != -1)
+			{
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+
+		StringBuilder builder = new StringBuilder();
+		for (byte b : digest.digest())
+			builder.append(String.format("%02x", b));
+
+		return builder.toString();
+	}
+
+	private static class Entry
+	{
+		private final long   length;
+		private final long   lastModified;
+		private final String hash;
+
+		private Entry(long length, long lastModified, String hash)
+		{
+			this.length = length;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server.io;
+
+import org.restlet.*;
+import org.restlet.data.*;
+import org.restlet.representation.*;
+import org.restlet.util.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * {@link FileChannelRepresentation} serves a {@link File} (or parts of it) straight from a {@link FileChannel}. It implements the HTTP
+ * <code>Range</code> and <code>If-Range</code> handling, i.e. single ranges are returned as <code>206 Partial Content</code> with a
+ * <code>Content-Range</code> header and multiple ranges as <code>multipart/byteranges</code>. The entity tag is the SHA-256 hash of the file
+ * content (see {@link ContentHashCache}) so that clients can safely resume interrupted downloads. Until the hash has been computed in the background,
+ * a weak entity tag based on the size and modification date of the file is used. Weak tags never satisfy an <code>If-Range</code> condition.
+ * <p/>
+ * Restlet's own range handling has to be disabled for this to work (see {@link org.restlet.service.RangeService}).
+ *
+ * @author Sebastian Raubach
+ */
+public class FileChannelRepresentation extends OutputRepresentation
+{
+	/** Requests with more (non-overlapping) ranges than this are answered with the whole file */
+	private static final int    MAX_RANGES = 16;
+	private static final String CRLF       = "\r\n";
+
+	private final File         file;
+	private final long         length;
+	private final List<long[]> ranges;
+	private final MediaType    partType;
+	private final String       boundary;
+	private       Runnable     releaseHandler;
+
+	private FileChannelRepresentation(File file, MediaType mediaType, List<long[]> ranges)
+	{
+		super(mediaType);
+
+		this.file = file;
+		this.length = file.length();
+		this.ranges = ranges;
+		this.partType = mediaType;
+
+		if (ranges.size() > 1)
+		{
+			this.boundary = UUID.randomUUID().toString().replace("-", "");
+
+			Series<Parameter> parameters = new Series<>(Parameter.class);
+			parameters.add("boundary", boundary);
+			setMediaType(new MediaType("multipart/byteranges", parameters));
+			setSize(getMultipartSize());
+		}
+		else
+		{
+			this.boundary = null;
+
+			setSize(length);
+
+			// Restlet uses the range for the Content-Range and Content-Length headers
+			if (ranges.size() == 1)
+			{
+				long[] range = ranges.get(0);
+				setRange(new Range(range[0], range[1] - range[0] + 1));
+			}
+		}
+	}
+
+	/**
+	 * Creates the {@link Representation} of the given {@link File} for the given {@link Request}. The status of the {@link Response} is set to
+	 * <code>206</code> if (some of) the requested ranges can be served or <code>416</code> if none of them can be served. In the latter case,
+	 * <code>null</code> is returned.
+	 *
+	 * @param request          The {@link Request}
+	 * @param response         The {@link Response}
+	 * @param file             The {@link File} to serve
+	 * @param mediaType        The {@link MediaType} of the file
+	 * @param modificationDate The modification date of the database object the file belongs to (may be <code>null</code>)
+	 * @return The {@link Representation} or <code>null</code>
+	 */
+	public static FileChannelRepresentation create(Request request, Response response, File file, MediaType mediaType, Date modificationDate)
+	{
+		String hash = ContentHashCache.Inst.get().getHashIfPresent(file);
+		Tag tag = hash != null ? new Tag(hash, false) : new Tag(Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()), true);
+
+		// Use whichever changed last, the database object or the file. HTTP dates only have second precision.
+		long modified = Math.max(file.lastModified(), modificationDate == null ? 0 : modificationDate.getTime());
+		Date date = new Date(modified / 1000 * 1000);
+
+		response.getServerInfo().setAcceptingRanges(true);
+
+		List<long[]> ranges = new ArrayList<>();
+
+		Method method = request.getMethod();
+		Conditions conditions = request.getConditions();
+		boolean rangeRequest = (Method.GET.equals(method) || Method.HEAD.equals(method)) && !request.getRanges().isEmpty();
+
+		// If-Range: only return parts if the client's copy is still the current one, otherwise return everything
+		if (rangeRequest && conditions.hasSomeRange() && (!conditions.getRangeStatus(tag, date).isSuccess() || (tag.isWeak() && conditions.getRangeTag() != null)))
+			rangeRequest = false;
+
+		if (rangeRequest)
+		{
+			ranges = resolve(request.getRanges(), file.length());
+
+			if (ranges == null)
+				ranges = new ArrayList<>();
+			else if (ranges.isEmpty())
+			{
+				response.setStatus(Status.CLIENT_ERROR_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return null;
+			}
+			else if (ranges.size() > MAX_RANGES)
+				ranges = new ArrayList<>();
+		}
+
+		FileChannelRepresentation representation = new FileChannelRepresentation(file, mediaType, ranges);
+		representation.setTag(tag);
+		representation.setModificationDate(date);
+
+		if (!ranges.isEmpty())
+			response.setStatus(Status.SUCCESS_PARTIAL_CONTENT);
+
+		return representation;
+	}
+
+	/**
+	 * Converts the requested {@link Range}s into absolute, sorted and merged <code>{first, last}</code> byte positions.
+	 *
+	 * @param requested The requested {@link Range}s
+	 * @param length    The length of the file
+	 * @return The resolved ranges, an empty list if none of them is satisfiable or <code>null</code> if any of them isn't a byte range
+	 */
+	private static List<long[]> resolve(List<Range> requested, long length)
+	{
+		List<long[]> result = new ArrayList<>();
+
+		for (Range range : requested)
+		{
+			if (!Range.isBytesRange(range))
+				return null;
+
+			long first;
+			long last;
+
+			if (range.getIndex() == Range.INDEX_LAST)
+			{
+				// Suffix range, i.e. the last n bytes
+				if (range.getSize() <= 0)
+					continue;
+
+				first = Math.max(0, length - range.getSize());
+				last = length - 1;
+			}
+			else
+			{
+				first = range.getIndex();
+				last = range.getSize() == Range.SIZE_MAX ? length - 1 : Math.min(length - 1, first + range.getSize() - 1);
+			}
+
+			if (first < length && first <= last)
+				result.add(new long[]{first, last});
+		}
+
+		// Merge overlapping and adjacent ranges
+		result.sort(Comparator.comparingLong(r -> r[0]));
+
+		List<long[]> merged = new ArrayList<>();
+
+		for (long[] range : result)
+		{
+			long[] previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+
+			if (previous != null && range[0] <= previous[1] + 1)
+				previous[1] = Math.max(previous[1], range[1]);
+			else
+				merged.add(range);
+		}
+
+		return merged;
+	}
+
+	/**
+	 * Sets the {@link Runnable} to run once the representation has been sent (or the request has been aborted), e.g. to allow the file to be
+	 * deleted again.
+	 *
+	 * @param releaseHandler The {@link Runnable} to run on {@link #release()}
+	 * @return This {@link FileChannelRepresentation}
+	 */
+	public FileChannelRepresentation setReleaseHandler(Runnable releaseHandler)
+	{
+		this.releaseHandler = releaseHandler;
+		return this;
+	}
+
+	@Override
+	public void release()
+	{
+		Runnable handler = releaseHandler;
+		releaseHandler = null;
+
+		if (handler != null)
+			handler.run();
+
+		super.release();
+	}
+
+	@Override
+	public void write(OutputStream outputStream)
+		throws IOException
+	{
+		write(Channels.newChannel(outputStream));
+	}
+
+	@Override
+	public void write(WritableByteChannel target)
+		throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			if (ranges.isEmpty())
+			{
+				transfer(channel, 0, length, target);
+			}
+			else if (ranges.size() == 1)
+			{
+				long[] range = ranges.get(0);
+				transfer(channel, range[0], range[1] - range[0] + 1, target);
+			}
+			else
+			{
+				for (long[] range : ranges)
+				{
+					writeAscii(getPartHeader(range), target);
+					transfer(channel, range[0], range[1] - range[0] + 1, target);
+				}
+
+				writeAscii(getClosingBoundary(), target);
+			}
+		}
+	}
+
+	private long getMultipartSize()
+	{
+		long size = getClosingBoundary().length();
+
+		for (long[] range : ranges)
+			size += getPartHeader(range).length() + (range[1] - range[0] + 1);
+
+		return size;
+	}
+
+	private String getPartHeader(long[] range)
+	{
+		return CRLF + "--" + boundary + CRLF
+			+ "Content-Type: " + partType + CRLF
+			+ "Content-Range: bytes " + range[0] + "-" + range[1] + "/" + length + CRLF
+			+ CRLF;
+	}
+
+	private String getClosingBoundary()
+	{
+		return CRLF + "--" + boundary + "--" + CRLF;
+	}
+
+	private static void writeAscii(String value, WritableByteChannel target)
+		throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(value.getBytes(StandardCharsets.US_ASCII));
+
+		while (buffer.hasRemaining())
+			target.write(buffer);
+	}
+
+	private static void transfer(FileChannel channel, long position, long count, WritableByteChannel target)
+		throws IOException
+	{
+		long end = position + count;
+
+		while (position < end)
+		{
+			long transferred = channel.transferTo(position, end - position, target);
+
+			if (transferred <= 0)
+				throw new EOFException("Unexpected end of file: " + position);
+
+			position += transferred;
+		}
+	}
+}
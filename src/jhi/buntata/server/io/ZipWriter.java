@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server.io;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * {@link ZipWriter} writes zip files from files anywhere on disk. Files that are already compressed (images, videos, archives) are added as
+ * {@link ZipEntry#STORED} entries, since deflating them again costs a lot of CPU time for next to no gain. Everything else is deflated. File
+ * content is transferred via {@link FileChannel}s and large buffers.
+ *
+ * @author Sebastian Raubach
+ */
+public class ZipWriter implements Closeable
+{
+	private static final int         BUFFER_SIZE       = 1024 * 1024;
+	private static final int         MAX_CACHE_ENTRIES = 100000;
+	private static final Set<String> STORED_EXTENSIONS = new HashSet<>(Arrays.asList("jpg", "jpeg", "png", "gif", "webp", "mp4", "m4v", "mov", "webm", "3gp", "mkv", "avi", "mp3", "m4a", "ogg", "zip", "gz", "7z"));
+
+	/** The CRCs of stored files only change if the file changes, so remember them between exports */
+	private static final ConcurrentMap<String, long[]> CRC_CACHE = new ConcurrentHashMap<>();
+
+	private final ZipOutputStream     zos;
+	private final WritableByteChannel channel;
+	private final Set<String>         names = new HashSet<>();
+
+	/**
+	 * Creates a new {@link ZipWriter} writing to the given {@link File}
+	 *
+	 * @param target The target zip {@link File}
+	 * @throws IOException Thrown if the file can't be created
+	 */
+	public ZipWriter(File target)
+		throws IOException
+	{
+		this.zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(target), BUFFER_SIZE));
+		this.channel = Channels.newChannel(zos);
+	}
+
+	/**
+	 * Adds the given {@link File} to the zip file. The compression method is picked based on the file extension. Duplicate names are ignored.
+	 *
+	 * @param name The name of the zip entry
+	 * @param file The {@link File}
+	 * @throws IOException Thrown if reading or writing fails
+	 */
+	public void add(String name, File file)
+		throws IOException
+	{
+		if (!names.add(name))
+			return;
+
+		ZipEntry entry = new ZipEntry(name);
+		entry.setTime(file.lastModified());
+
+		if (isCompressed(name))
+		{
+			// Stored entries need their size and CRC before the data is written
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(file.length());
+			entry.setCompressedSize(file.length());
+			entry.setCrc(getCrc(file));
+		}
+		else
+		{
+			entry.setMethod(ZipEntry.DEFLATED);
+		}
+
+		zos.putNextEntry(entry);
+
+		try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			long position = 0;
+			long size = in.size();
+
+			while (position < size)
+			{
+				long transferred = in.transferTo(position, size - position, channel);
+
+				if (transferred <= 0)
+					throw new EOFException("Unexpected end of file: " + file.getAbsolutePath());
+
+				position += transferred;
+			}
+		}
+
+		zos.closeEntry();
+	}
+
+	@Override
+	public void close()
+		throws IOException
+	{
+		zos.close();
+	}
+
+	private static boolean isCompressed(String name)
+	{
+		int index = name.lastIndexOf('.');
+
+		return index != -1 && STORED_EXTENSIONS.contains(name.substring(index + 1).toLowerCase(Locale.ROOT));
+	}
+
+	private static long getCrc(File file)
+		throws IOException
+	{
+		String key = file.getAbsolutePath();
+		long length = file.length();
+		long lastModified = file.lastModified();
+
+		long[] cached = CRC_CACHE.get(key);
+
+		if (cached != null && cached[0] == length && cached[1] == lastModified)
+			return cached[2];
+
+		CRC32 crc = new CRC32();
+
+		try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+			while (in.read(buffer) != -1)
+			{
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		}
+
+		if (CRC_CACHE.size() >= MAX_CACHE_ENTRIES)
+			CRC_CACHE.clear();
+
+		CRC_CACHE.put(key, new long[]{length, lastModified, crc.getValue()});
+
+		return crc.getValue();
+	}
+}
@@ -16,228 +16,31 @@
 
 package jhi.buntata.server.job;
 
-import java.io.*;
-import java.nio.file.*;
-import java.text.*;
-import java.util.*;
-import java.util.zip.*;
-
-import javax.servlet.*;
-
 import jhi.buntata.data.*;
 import jhi.buntata.resource.*;
-import jhi.buntata.server.*;
-import jhi.buntata.sqlite.*;
-import jhi.database.server.*;
 
 /**
- * This {@link Runnable} updates the data size information of all {@link BuntataDatasource} objects by checking their {@link BuntataMedia} objects and
- * summing over their size.
+ * This {@link Runnable} makes sure that all {@link BuntataDatasource} objects are exported. The exports are queued on the {@link
+ * ExportCoordinator} with {@link ExportCoordinator.Priority#SCHEDULED} priority, so that exports requested by users are started first.
  */
 public class DatasourceExportJob implements Runnable
 {
-	private static final SimpleDateFormat SDF             = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss");
-	private static final String           TEMP_SUB_FOLDER = "buntata-datasources";
-
-	private static File TARGET_FOLDER;
-
 	private final DatasourceDAO datasourceDAO = new DatasourceDAO();
 
-	private ServletContext servlet;
+	private ExportCoordinator coordinator;
 
-	public DatasourceExportJob(ServletContext servlet)
+	public DatasourceExportJob(ExportCoordinator coordinator)
 	{
-		this.servlet = servlet;
-
-		String version = servlet.getInitParameter("version");
-
-		TARGET_FOLDER = new File(System.getProperty("java.io.tmpdir"), TEMP_SUB_FOLDER + "-" + version);
-		TARGET_FOLDER.mkdirs();
+		this.coordinator = coordinator;
 	}
 
 	@Override
 	public void run()
 	{
-		datasourceDAO.getAll(true)
-					 .parallelStream()
-					 .forEach(ds -> makeSureExists(servlet, ds));
-	}
-
-	/**
-	 * Makes sure the data source is exported and zipped up.
-	 *
-	 * @param servlet    The {@link ServletContext} to get access to paths and resources
-	 * @param datasource The {@link BuntataDatasource} that should be exported
-	 * @return Two {@link File}s. The first is the one containing videos, the second the one without.
-	 */
-	public static File[] makeSureExists(ServletContext servlet, BuntataDatasource datasource)
-	{
-		Date date = datasource.getUpdatedOn();
-		if (date == null)
-			date = datasource.getCreatedOn();
-
-		File targetFileTrue;
-		File targetFileFalse;
-
-		/* Make sure to synchronize this as it'd cause race conditions otherwise */
-		synchronized (SDF)
-		{
-			targetFileTrue = new File(TARGET_FOLDER, datasource.getId() + "-" + SDF.format(date) + "-true.zip");
-			targetFileFalse = new File(TARGET_FOLDER, datasource.getId() + "-" + SDF.format(date) + "-false.zip");
-		}
-
-		// If the file doesn't exist, we need to create it.
-		if (!targetFileTrue.exists() || !targetFileFalse.exists())
-		{
-			exportFile(servlet, datasource, targetFileTrue, true);
-			exportFile(servlet, datasource, targetFileFalse, false);
-
-			// Delete potentially existing old files
-			Arrays.stream(getOldFiles(datasource, targetFileTrue, targetFileFalse))
-				  .forEach(File::delete);
-		}
-
-		return new File[]{targetFileTrue, targetFileFalse};
-	}
-
-	/**
-	 * Exports the given {@link BuntataDatasource} to the target file.
-	 *
-	 * @param servlet       {@link ServletContext} used to access local resources and files
-	 * @param datasource    The {@link BuntataDatasource} that should be exported
-	 * @param target        The target file
-	 * @param includeVideos Should videos be included?
-	 */
-	private static void exportFile(ServletContext servlet, BuntataDatasource datasource, File target, boolean includeVideos)
-	{
-		try
-		{
-			final Long id = datasource.getId();
-
-			// Get some information from the servlet
-			File sourceFile = new File(servlet.getRealPath("/WEB-INF/database.db"));
-
-			// Create a temporary directory and new sqlite file
-			File folder = Files.createTempDirectory("buntata-datasource-" + id + "-").toFile();
-			File targetFile = new File(folder, id + ".sqlite");
-
-			// Get the classpath elements
-			File libFolder = new File(servlet.getRealPath("/WEB-INF/lib"));
-			File jdbcClient = new File(servlet.getRealPath("/WEB-INF/sqlite/sqlite-client.jar"));
-			File jdbcJar = new File(servlet.getRealPath("/WEB-INF/sqlite/sqlite-jdbc.jar"));
-
-			// Get the database connection information
-			String database = servlet.getInitParameter("database");
-			String username = servlet.getInitParameter("username");
-			String password = servlet.getInitParameter("password");
+		// Delete retired exports that are no longer being downloaded
+		coordinator.getStore().cleanup();
 
-			database = database.replace(Database.DatabaseType.MYSQL.getConnectionString(), "");
-
-			if (password == null || password.equals(""))
-				password = "\"\"";
-
-			// Define the external process
-			ProcessBuilder processBuilder = new ProcessBuilder("java", "-cp", jdbcJar.getAbsolutePath() + File.pathSeparator + jdbcClient.getAbsolutePath() + File.pathSeparator + libFolder.getAbsolutePath() + "/*", MySqlToSqLiteConverter.class.getCanonicalName(),
-				Long.toString(id), Boolean.toString(includeVideos), sourceFile.getAbsolutePath(), targetFile.getAbsolutePath(), database, username, password);
-
-			// Redirect output
-			processBuilder = processBuilder.inheritIO();
-
-			// Start it
-			processBuilder.start()
-						  .waitFor();
-
-			// Zip it
-			zipIt(folder, target);
-
-			// Delete temp files
-			Utils.deleteDirectory(folder);
-		}
-		catch (IOException | InterruptedException e)
-		{
-			e.printStackTrace();
-		}
-	}
-
-	/**
-	 * Zips the given source folder into the given target file
-	 *
-	 * @param sourceFolder The source {@link File} (folder)
-	 * @param targetFile   The target {@link File}
-	 */
-	private static void zipIt(File sourceFolder, File targetFile)
-	{
-		if (targetFile.exists())
-			targetFile.delete();
-
-		byte[] buffer = new byte[1024];
-
-		try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(targetFile)))
-		{
-			List<File> fileList = new ArrayList<>();
-
-			generateFileList(fileList, sourceFolder);
-
-			// Add all the files to the zip file
-			for (File file : fileList)
-			{
-				ZipEntry ze = new ZipEntry(file.getName());
-				zos.putNextEntry(ze);
-				try (FileInputStream fis = new FileInputStream(file))
-				{
-					int len;
-					while ((len = fis.read(buffer)) > 0)
-					{
-						zos.write(buffer, 0, len);
-					}
-				}
-			}
-
-			zos.closeEntry();
-		}
-		catch (IOException e)
-		{
-			e.printStackTrace();
-		}
-	}
-
-	/**
-	 * Recursively adds all files to the given {@link List}.
-	 *
-	 * @param result The {@link List} to add the files to
-	 * @param parent The root file
-	 */
-	private static void generateFileList(List<File> result, File parent)
-	{
-		// Add files only
-		if (parent.isFile())
-		{
-			result.add(parent);
-		}
-		// Recursively add files
-		else if (parent.isDirectory())
-		{
-			File[] children = parent.listFiles();
-			if (children != null)
-			{
-				for (File child : children)
-				{
-					generateFileList(result, child);
-				}
-			}
-		}
-	}
-
-	/**
-	 * Returns all old exported files that have been generated for the given {@link BuntataDatasource} that aren't the given two files
-	 *
-	 * @param datasource The {@link BuntataDatasource} in question
-	 * @param t          The exported file including videos to ignore
-	 * @param f          The exported file excluding videos to ignore
-	 * @return An array of files that can be deleted
-	 */
-	private static File[] getOldFiles(BuntataDatasource datasource, File t, File f)
-	{
-		return TARGET_FOLDER.listFiles(file -> !file.equals(t) && !file.equals(f) && file.getName().startsWith(datasource.getId() + "-"));
+		datasourceDAO.getAll(true)
+					 .forEach(ds -> coordinator.request(ds, ExportCoordinator.Priority.SCHEDULED));
 	}
-}
\ No newline at end of file
+}
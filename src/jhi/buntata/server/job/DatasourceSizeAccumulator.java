@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server.job;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import jhi.buntata.data.*;
+import jhi.buntata.resource.*;
+
+/**
+ * {@link DatasourceSizeAccumulator} collects the size changes of {@link BuntataDatasource}s caused by adding and removing media files. The
+ * changes are kept in memory and written to the database by {@link #flush()}, so that a burst of uploads only results in a single update per
+ * data source. {@link DatasourceSizeJob} recomputes the sizes from scratch every now and then to correct any drift.
+ *
+ * @author Sebastian Raubach
+ */
+public class DatasourceSizeAccumulator implements Runnable
+{
+	private final DatasourceDAO datasourceDAO = new DatasourceDAO();
+
+	/** Data source id to the pending change of the total size and the size without videos */
+	private final ConcurrentMap<Long, long[]> pending = new ConcurrentHashMap<>();
+
+	/**
+	 * Records that the given media file has been added to or removed from the given {@link BuntataDatasource}s.
+	 *
+	 * @param datasourceIds The ids of the {@link BuntataDatasource}s
+	 * @param media         The {@link BuntataMedia}
+	 * @param file          The media file
+	 * @param added         <code>true</code> if the file has been added, <code>false</code> if it has been removed
+	 */
+	public void publish(Collection<Long> datasourceIds, BuntataMedia media, File file, boolean added)
+	{
+		if (file == null || !file.isFile())
+			return;
+
+		long size = added ? file.length() : -file.length();
+		boolean isVideo = MediaTypeRegistry.Inst.get().is(media.getMediaTypeId(), BuntataMediaType.TYPE_VIDEO);
+
+		for (Long id : datasourceIds)
+			pending.merge(id, new long[]{size, isVideo ? 0 : size}, (a, b) -> new long[]{a[0] + b[0], a[1] + b[1]});
+	}
+
+	/**
+	 * Returns the changes that are pending right now. Call this before recomputing the sizes from scratch and pass the result to {@link
+	 * #discard(Map)} once the recomputed sizes have been written.
+	 *
+	 * @return The pending changes by data source id
+	 */
+	public Map<Long, long[]> snapshot()
+	{
+		// The changes are replaced rather than modified by publish(), so a shallow copy is enough
+		return new HashMap<>(pending);
+	}
+
+	/**
+	 * Drops the given changes, which are part of the recomputed sizes. Changes that have been published since the snapshot was taken are kept.
+	 *
+	 * @param snapshot The changes returned by {@link #snapshot()}
+	 */
+	public void discard(Map<Long, long[]> snapshot)
+	{
+		for (Map.Entry<Long, long[]> entry : snapshot.entrySet())
+		{
+			long[] counted = entry.getValue();
+
+			pending.computeIfPresent(entry.getKey(), (id, change) ->
+			{
+				long[] remaining = new long[]{change[0] - counted[0], change[1] - counted[1]};
+				return (remaining[0] == 0 && remaining[1] == 0) ? null : remaining;
+			});
+		}
+	}
+
+	/**
+	 * Writes all pending changes to the database.
+	 */
+	public void flush()
+	{
+		if (pending.isEmpty())
+			return;
+
+		Set<Long> existing = new HashSet<>();
+
+		for (BuntataDatasource datasource : datasourceDAO.getAll(true))
+		{
+			existing.add(datasource.getId());
+
+			long[] change = pending.remove(datasource.getId());
+
+			if (change == null || (change[0] == 0 && change[1] == 0))
+				continue;
+
+			datasource.setSizeTotal(Math.max(0, datasource.getSizeTotal() + change[0]));
+			datasource.setSizeNoVideo(Math.max(0, datasource.getSizeNoVideo() + change[1]));
+			datasourceDAO.updateSize(datasource);
+		}
+
+		// Forget about changes to data sources that no longer exist
+		pending.keySet().removeIf(id -> !existing.contains(id));
+	}
+
+	@Override
+	public void run()
+	{
+		flush();
+	}
+}
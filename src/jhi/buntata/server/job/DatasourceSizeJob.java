@@ -18,75 +18,78 @@ package jhi.buntata.server.job;
 
 import java.io.*;
 import java.util.*;
-import java.util.function.*;
 
 import jhi.buntata.data.*;
 import jhi.buntata.resource.*;
 
 /**
  * This {@link Runnable} updates the data size information of all {@link BuntataDatasource} objects by checking their {@link BuntataMedia} objects and
- * summing over their size.
+ * summing over their size. The media files of all data sources are fetched in a single query and their sizes are looked up in parallel by a
+ * {@link FileSizeReader}.
+ * <p/>
+ * Uploads and deletions update the sizes right away through the {@link DatasourceSizeAccumulator}, this job only corrects any drift, e.g. caused
+ * by files that have been changed outside of the server.
  */
 public class DatasourceSizeJob implements Runnable
 {
 	private final DatasourceDAO datasourceDAO = new DatasourceDAO();
-	private final NodeDAO       nodeDAO       = new NodeDAO();
 	private final MediaDAO      mediaDAO      = new MediaDAO();
 
-	private Set<String> alreadyCounted = new HashSet<>();
+	private final String                    dataDir;
+	private final FileSizeReader            sizeReader;
+	private final DatasourceSizeAccumulator sizeAccumulator;
 
-	private Predicate<File> filter = f ->
+	public DatasourceSizeJob(String dataDir, FileSizeReader sizeReader, DatasourceSizeAccumulator sizeAccumulator)
 	{
-		// Has to exist and be a file
-		boolean result = f.exists() && f.isFile();
-
-		// Add it if it didn't already exist
-		result &= alreadyCounted.add(f.getAbsolutePath());
-
-		// Result is only true if the file exists, is a file (not a folder) and hasn't already been counted
-		return result;
-	};
+		this.dataDir = dataDir;
+		this.sizeReader = sizeReader;
+		this.sizeAccumulator = sizeAccumulator;
+	}
 
 	@Override
 	public void run()
 	{
-		alreadyCounted.clear();
+		// Changes that have already been published are part of what's counted below, they're dropped once the new sizes have been written
+		Map<Long, long[]> counted = sizeAccumulator == null ? null : sizeAccumulator.snapshot();
 
-		// Get all the data sources
+		// Get all the data sources and the media files of all of them
 		List<BuntataDatasource> datasources = datasourceDAO.getAll(true);
+		Map<Long, Map<String, Set<String>>> links = mediaDAO.getInternalLinksByDatasource();
 
-		for (BuntataDatasource datasource : datasources)
+		// Resolve the media files, each file only counts once per data source
+		Map<Long, Set<String>> images = new HashMap<>();
+		Map<Long, Set<String>> videos = new HashMap<>();
+		Set<File> files = new HashSet<>();
+
+		for (Map.Entry<Long, Map<String, Set<String>>> entry : links.entrySet())
 		{
-			long sizeTotal = 0;
-			long sizeNoVideo = 0;
+			Set<String> imagePaths = resolve(entry.getValue().get(BuntataMediaType.TYPE_IMAGE), files);
+			Set<String> videoPaths = resolve(entry.getValue().get(BuntataMediaType.TYPE_VIDEO), files);
+			videoPaths.removeAll(imagePaths);
 
-			// Get all the nodes
-			List<BuntataNode> nodes = nodeDAO.getAllForDatasource(datasource.getId());
+			images.put(entry.getKey(), imagePaths);
+			videos.put(entry.getKey(), videoPaths);
+		}
 
-			for (BuntataNode node : nodes)
-			{
-				// Get all the media
-				Map<String, List<BuntataMedia>> media = mediaDAO.getAllForNode(node.getId(), true);
-
-				long imageSize = media.get(BuntataMediaType.TYPE_IMAGE)
-									  .stream()
-									  .map(m -> new File(m.getInternalLink()))
-									  .filter(filter)
-									  .map(File::length)
-									  .mapToLong(Long::longValue)
-									  .sum();
-
-				long videoSize = media.get(BuntataMediaType.TYPE_VIDEO)
-									  .stream()
-									  .map(m -> new File(m.getInternalLink()))
-									  .filter(filter)
-									  .map(File::length)
-									  .mapToLong(Long::longValue)
-									  .sum();
-
-				sizeTotal += imageSize + videoSize;
-				sizeNoVideo += imageSize;
-			}
+		Map<String, Long> sizes;
+
+		try
+		{
+			sizes = sizeReader.getSizes(files);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		for (BuntataDatasource datasource : datasources)
+		{
+			long imageSize = sum(images.get(datasource.getId()), sizes);
+			long videoSize = sum(videos.get(datasource.getId()), sizes);
+
+			long sizeTotal = imageSize + videoSize;
+			long sizeNoVideo = imageSize;
 
 			// Only save changes if the values actually changed. This prevents the "updated_on" field to be modified if nothing really changed.
 			if (sizeTotal != datasource.getSizeTotal() || sizeNoVideo != datasource.getSizeNoVideo())
@@ -97,5 +100,43 @@ public class DatasourceSizeJob implements Runnable
 				datasourceDAO.updateSize(datasource);
 			}
 		}
+
+		if (counted != null)
+			sizeAccumulator.discard(counted);
+	}
+
+	private Set<String> resolve(Set<String> links, Set<File> files)
+	{
+		Set<String> result = new HashSet<>();
+
+		if (links != null)
+		{
+			for (String link : links)
+			{
+				// Relative paths are relative to the data directory
+				File file = new File(link);
+				if (!file.isAbsolute())
+					file = new File(dataDir, link);
+
+				file = file.getAbsoluteFile();
+
+				files.add(file);
+				result.add(file.getPath());
+			}
+		}
+
+		return result;
+	}
+
+	private static long sum(Set<String> paths, Map<String, Long> sizes)
+	{
+		if (paths == null)
+			return 0;
+
+		return paths.stream()
+					.map(sizes::get)
+					.filter(Objects::nonNull)
+					.mapToLong(Long::longValue)
+					.sum();
 	}
-}
\ No newline at end of file
+}
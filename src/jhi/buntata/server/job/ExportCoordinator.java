@@ -0,0 +1,729 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server.job;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.security.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+import java.util.regex.*;
+
+import javax.servlet.*;
+
+import jhi.buntata.data.*;
+import jhi.buntata.data.pool.*;
+import jhi.buntata.resource.*;
+import jhi.buntata.server.*;
+import jhi.buntata.server.io.*;
+import jhi.buntata.sqlite.*;
+
+/**
+ * {@link ExportCoordinator} exports {@link BuntataDatasource}s to zipped SQLite databases. At most one export runs per datasource at any time,
+ * concurrent requests for the same datasource share its result. Exports run on a bounded pool of worker threads, queued exports requested by
+ * users ({@link Priority#USER}) are started before scheduled ones ({@link Priority#SCHEDULED}). Exports taking longer than
+ * {@link #EXPORT_TIMEOUT_MINUTES} are interrupted.
+ *
+ * @author Sebastian Raubach
+ */
+public class ExportCoordinator
+{
+	private static final SimpleDateFormat SDF                    = new SimpleDateFormat("yyyyMMddHHmmss");
+	/** The number of hex characters of the content version used in the file names */
+	private static final int              VERSION_LENGTH         = 16;
+	/** Exports taking longer than this are cancelled */
+	private static final long             EXPORT_TIMEOUT_MINUTES = 30;
+	/** The number of export versions per datasource that deltas can be computed against */
+	private static final int              HISTORY_SIZE           = 5;
+	private static final Pattern          VERSION_PATTERN        = Pattern.compile("[0-9a-zA-Z]{1,64}");
+	/** The number of finished {@link ExportRecord}s that are kept per datasource */
+	private static final int              RECORD_HISTORY_SIZE    = 10;
+
+	private final ServletContext                  servlet;
+	private final ExportStore                     store;
+	private final File                            targetFolder;
+	private final File                            historyFolder;
+	private final ThreadPoolExecutor              executor;
+	private final ScheduledExecutorService        watchdog;
+	private final ConcurrentMap<Long, ExportTask> tasks         = new ConcurrentHashMap<>();
+	private final AtomicLong                      sequence      = new AtomicLong();
+	private final DatasourceDAO                   datasourceDAO = new DatasourceDAO();
+
+	private final ConcurrentMap<String, CompletableFuture<File>> deltas = new ConcurrentHashMap<>();
+
+	private final Map<Long, Deque<ExportRecord>> records    = new HashMap<>();
+	private final ExportStatistics               statistics = new ExportStatistics();
+
+	/**
+	 * The priority of an export. Queued exports with a higher priority (lower ordinal) are started first.
+	 */
+	public enum Priority
+	{
+		USER,
+		SCHEDULED
+	}
+
+	/**
+	 * Creates a new {@link ExportCoordinator}
+	 *
+	 * @param servlet The {@link ServletContext} to get access to paths and resources
+	 * @param store   The {@link ExportStore} to keep the exported files in
+	 * @param threads The number of exports that can run at the same time
+	 */
+	public ExportCoordinator(ServletContext servlet, ExportStore store, int threads)
+	{
+		this.servlet = servlet;
+		this.store = store;
+		this.targetFolder = store.getFolder();
+		this.historyFolder = store.getHistoryFolder();
+
+		AtomicInteger counter = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), r ->
+		{
+			Thread thread = new Thread(r, "buntata-export-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.watchdog = Executors.newSingleThreadScheduledExecutor(r ->
+		{
+			Thread thread = new Thread(r, "buntata-export-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Requests the export of the given {@link BuntataDatasource}. If the export already exists, the returned {@link CompletableFuture} is
+	 * completed right away. If an export of the datasource is already queued or running, its {@link CompletableFuture} is returned. A queued
+	 * export is moved ahead if it's requested again with a higher {@link Priority}.
+	 *
+	 * @param datasource The {@link BuntataDatasource} to export
+	 * @param priority   The {@link Priority} of the request
+	 * @return A {@link CompletableFuture} that completes with two {@link File}s. The first is the one containing videos, the second the one
+	 * without. Either is <code>null</code> if the export failed.
+	 */
+	public CompletableFuture<File[]> request(BuntataDatasource datasource, Priority priority)
+	{
+		File[] files = getTargetFiles(datasource, getVersion(datasource));
+
+		if (files[0].exists() && files[1].exists())
+			return CompletableFuture.completedFuture(files);
+
+		synchronized (tasks)
+		{
+			ExportTask task = tasks.get(datasource.getId());
+
+			if (task == null)
+			{
+				task = new ExportTask(datasource, priority);
+				tasks.put(datasource.getId(), task);
+
+				try
+				{
+					executor.execute(task);
+				}
+				catch (RejectedExecutionException e)
+				{
+					tasks.remove(datasource.getId());
+					task.future.completeExceptionally(e);
+				}
+			}
+			else if (priority.compareTo(task.priority) < 0 && executor.getQueue().remove(task))
+			{
+				// The queue doesn't notice priority changes, so take the task out and put it back in
+				task.priority = priority;
+				task.record.setPriority(priority);
+				executor.execute(task);
+			}
+
+			return task.future;
+		}
+	}
+
+	/**
+	 * Returns the delta between the export of the given version and the current export of the given {@link BuntataDatasource}. The delta is a zip
+	 * file containing a SQLite database with all added or changed rows (see {@link SqLiteDelta}) and all added or changed media files. The current
+	 * export has to exist already (see {@link #request(BuntataDatasource, Priority)}).
+	 *
+	 * @param datasource    The {@link BuntataDatasource}
+	 * @param since         The version of the export the client has
+	 * @param includeVideos Whether to include the videos
+	 * @return The delta zip file or <code>null</code> if either version is no longer (or not yet) part of the history. Clients should fall back
+	 * to the full export in that case.
+	 * @throws IOException Thrown if the delta can't be created
+	 */
+	public File getDelta(BuntataDatasource datasource, String since, boolean includeVideos)
+		throws IOException
+	{
+		// The version ends up in file names, so don't accept anything that doesn't look like one
+		if (since == null || !VERSION_PATTERN.matcher(since).matches())
+			return null;
+
+		Long id = datasource.getId();
+		String version = getVersion(datasource);
+
+		File target = new File(targetFolder, id + "-" + version + "-delta-" + since + "-" + includeVideos + ".zip");
+
+		if (target.exists())
+			return target;
+
+		File previousDatabase = getHistoryFile(id, since, includeVideos + ".sqlite");
+		File currentDatabase = getHistoryFile(id, version, includeVideos + ".sqlite");
+		File previousManifest = getHistoryFile(id, since, "media");
+		File currentManifest = getHistoryFile(id, version, "media");
+
+		if (!previousDatabase.exists() || !currentDatabase.exists() || !previousManifest.exists() || !currentManifest.exists())
+			return null;
+
+		// Only one thread creates a specific delta, everybody else waits for it
+		CompletableFuture<File> future = new CompletableFuture<>();
+		CompletableFuture<File> existing = deltas.putIfAbsent(target.getName(), future);
+
+		if (existing != null)
+		{
+			try
+			{
+				return existing.get();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			catch (ExecutionException e)
+			{
+				throw new IOException(e.getCause());
+			}
+		}
+
+		File folder = null;
+
+		try
+		{
+			folder = Files.createTempDirectory("buntata-delta-" + id + "-").toFile();
+			File database = new File(folder, id + ".sqlite");
+
+			SqLiteDelta.create(previousDatabase, currentDatabase, database);
+
+			Map<String, File> files = new LinkedHashMap<>();
+			files.put(database.getName(), database);
+
+			// Add all media files that are new or have changed since
+			Properties previous = readManifest(previousManifest);
+			Properties current = readManifest(currentManifest);
+
+			for (String name : current.stringPropertyNames())
+			{
+				String[] parts = current.getProperty(name).split(",", 4);
+
+				if (!includeVideos && Boolean.parseBoolean(parts[2]))
+					continue;
+
+				String[] previousParts = previous.getProperty(name, "").split(",", 4);
+
+				if (previousParts.length < 2 || !previousParts[0].equals(parts[0]) || !previousParts[1].equals(parts[1]))
+				{
+					File file = new File(parts[3]);
+
+					if (file.exists())
+						files.put(name, file);
+				}
+			}
+
+			zipIt(files, target);
+
+			File result = target.exists() ? target : null;
+			future.complete(result);
+			return result;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			future.completeExceptionally(e);
+			throw e;
+		}
+		finally
+		{
+			deltas.remove(target.getName(), future);
+
+			if (folder != null)
+			{
+				try
+				{
+					Utils.deleteDirectory(folder);
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	public ExportStore getStore()
+	{
+		return store;
+	}
+
+	/**
+	 * Returns the version of the given exported (full or delta) file.
+	 *
+	 * @param file The exported file
+	 * @return The version of the exported file
+	 */
+	public static String getVersion(File file)
+	{
+		// Files are named "{id}-{version}-..."
+		return file.getName().split("-", 3)[1];
+	}
+
+	/**
+	 * Returns the {@link ExportRecord}s of all queued and running exports as well as the most recent finished exports, latest first.
+	 *
+	 * @param datasourceId The id of the {@link BuntataDatasource} to restrict the result to or <code>null</code> for all data sources
+	 * @return The {@link ExportRecord}s
+	 */
+	public List<ExportRecord> getRecords(Long datasourceId)
+	{
+		// A finished record is briefly both in the tasks and the history, so don't list it twice
+		Set<ExportRecord> unique = new LinkedHashSet<>();
+
+		synchronized (tasks)
+		{
+			tasks.values().forEach(t -> unique.add(t.record));
+		}
+
+		synchronized (records)
+		{
+			records.values().forEach(unique::addAll);
+		}
+
+		List<ExportRecord> result = new ArrayList<>(unique);
+
+		if (datasourceId != null)
+			result.removeIf(r -> !datasourceId.equals(r.getDatasourceId()));
+
+		result.sort(Comparator.comparing(ExportRecord::getQueuedOn).reversed());
+
+		return result;
+	}
+
+	/**
+	 * Returns the export statistics in the Prometheus text exposition format.
+	 *
+	 * @return The export statistics in the Prometheus text exposition format
+	 */
+	public String getMetrics()
+	{
+		return statistics.toPrometheus(executor.getQueue().size(), executor.getActiveCount());
+	}
+
+	/**
+	 * Cancels all running exports and stops the export threads.
+	 */
+	public void shutdown()
+	{
+		executor.shutdownNow();
+		watchdog.shutdownNow();
+	}
+
+	/**
+	 * Makes sure the data source is exported and zipped up.
+	 *
+	 * @param datasource The {@link BuntataDatasource} that should be exported
+	 * @param record     The {@link ExportRecord} to fill in
+	 * @return Two {@link File}s. The first is the one containing videos, the second the one without. Either is <code>null</code> if the export
+	 * failed.
+	 */
+	private File[] makeSureExists(BuntataDatasource datasource, ExportRecord record)
+	{
+		String version = getVersion(datasource);
+		record.setVersion(version);
+		File[] files = getTargetFiles(datasource, version);
+		File targetFileTrue = files[0];
+		File targetFileFalse = files[1];
+
+		// If the file doesn't exist, we need to create it.
+		if (!targetFileTrue.exists() || !targetFileFalse.exists())
+		{
+			exportFiles(datasource, version, targetFileTrue, targetFileFalse, record);
+
+			// Old files may still be downloaded, so only retire them. The store deletes them once they're no longer in use.
+			File[] oldFiles = getOldFiles(datasource, targetFileTrue, targetFileFalse);
+			if (oldFiles != null)
+				Arrays.stream(oldFiles).forEach(store::retire);
+
+			store.cleanup();
+		}
+		else
+		{
+			record.setState(ExportRecord.State.UP_TO_DATE);
+		}
+
+		return new File[]{targetFileTrue.exists() ? targetFileTrue : null, targetFileFalse.exists() ? targetFileFalse : null};
+	}
+
+	private File[] getTargetFiles(BuntataDatasource datasource, String version)
+	{
+		return new File[]{
+			new File(targetFolder, datasource.getId() + "-" + version + "-true.zip"),
+			new File(targetFolder, datasource.getId() + "-" + version + "-false.zip")
+		};
+	}
+
+	/**
+	 * Returns the version of the content of the given {@link BuntataDatasource}. It's derived from the change watermark of the datasource (see
+	 * {@link DatasourceDAO#getChangeWatermark(Long)}), so it only changes if anything that ends up in the export changes. Falls back to the
+	 * modification date of the datasource if the watermark can't be determined.
+	 *
+	 * @param datasource The {@link BuntataDatasource}
+	 * @return The version of the content of the datasource
+	 */
+	public String getVersion(BuntataDatasource datasource)
+	{
+		String watermark = datasourceDAO.getChangeWatermark(datasource.getId());
+
+		if (watermark != null)
+		{
+			try
+			{
+				byte[] hash = MessageDigest.getInstance("SHA-1").digest(watermark.getBytes(StandardCharsets.UTF_8));
+
+				StringBuilder builder = new StringBuilder();
+				for (int i = 0; i < VERSION_LENGTH / 2; i++)
+					builder.append(String.format("%02x", hash[i]));
+
+				return builder.toString();
+			}
+			catch (NoSuchAlgorithmException e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		Date date = datasource.getUpdatedOn();
+		if (date == null)
+			date = datasource.getCreatedOn();
+
+		/* Make sure to synchronize this as it'd cause race conditions otherwise */
+		synchronized (SDF)
+		{
+			return SDF.format(date);
+		}
+	}
+
+	/**
+	 * Exports the given {@link BuntataDatasource} to the two target files. The conversion runs only once, the export without videos is derived
+	 * from its result by removing the video links from a copy of the database and leaving out the video files. Both databases and the list of
+	 * media files are kept in the history, so that deltas can be computed against this version later on.
+	 *
+	 * @param datasource          The {@link BuntataDatasource} that should be exported
+	 * @param version             The version of the export
+	 * @param targetWithVideos    The target file including videos
+	 * @param targetWithoutVideos The target file excluding videos
+	 * @param record              The {@link ExportRecord} to fill in
+	 */
+	private void exportFiles(BuntataDatasource datasource, String version, File targetWithVideos, File targetWithoutVideos, ExportRecord record)
+	{
+		File folder = null;
+
+		try
+		{
+			final Long id = datasource.getId();
+
+			// Get some information from the servlet
+			File sourceFile = new File(servlet.getRealPath("/WEB-INF/database.db"));
+			String dataDir = servlet.getInitParameter("dataDir");
+
+			// Create a temporary directory and new sqlite file. The database without videos goes into a sub folder, because it needs the same name.
+			folder = Files.createTempDirectory("buntata-datasource-" + id + "-").toFile();
+			File targetFile = new File(folder, id + ".sqlite");
+			File noVideoFolder = new File(folder, "no-videos");
+			File noVideoFile = new File(noVideoFolder, targetFile.getName());
+
+			// Media files are read straight from the data directory when zipping, there's no need to copy them
+			MySqlToSqLiteConverter converter = new MySqlToSqLiteConverter(id, sourceFile, targetFile, dataDir == null ? null : new File(dataDir), false);
+
+			// The tables are streamed from the database, which holds the connections for as long as the conversion takes
+			try (ConnectionPool.LongRunning longRunning = ConnectionPool.longRunning())
+			{
+				converter.convert();
+			}
+
+			record.setPhases(converter.getPhases())
+				  .setDatabaseSize(targetFile.length())
+				  .setMediaFiles(converter.getMediaFiles().size())
+				  .setMediaSize(converter.getMediaFiles().values().stream().mapToLong(File::length).sum())
+				  .setMissingFiles(converter.getMissingFiles());
+
+			noVideoFolder.mkdirs();
+			Files.copy(targetFile.toPath(), noVideoFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			MySqlToSqLiteConverter.removeVideos(noVideoFile);
+
+			// Zip them, both share everything but the database and the video files
+			Map<String, File> withVideos = new LinkedHashMap<>();
+			File[] children = folder.listFiles(File::isFile);
+			if (children != null)
+				Arrays.stream(children).forEach(f -> withVideos.put(f.getName(), f));
+			withVideos.putAll(converter.getMediaFiles());
+
+			Map<String, File> withoutVideos = new LinkedHashMap<>(withVideos);
+			withoutVideos.put(targetFile.getName(), noVideoFile);
+			withoutVideos.keySet().removeAll(converter.getVideoFiles());
+
+			zipIt(withVideos, targetWithVideos);
+			zipIt(withoutVideos, targetWithoutVideos);
+
+			record.setZipSizeWithVideos(targetWithVideos.length())
+				  .setZipSizeWithoutVideos(targetWithoutVideos.length());
+
+			addToHistory(id, version, targetFile, noVideoFile, converter);
+		}
+		catch (InterruptedException | ClosedByInterruptException e)
+		{
+			Logger.getLogger("").log(Level.WARNING, "Export of data source " + datasource.getId() + " was cancelled");
+			record.setState(ExportRecord.State.CANCELLED);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			record.setState(ExportRecord.State.FAILED)
+				  .setError(e.toString());
+		}
+		finally
+		{
+			// Delete temp files
+			if (folder != null)
+			{
+				try
+				{
+					Utils.deleteDirectory(folder);
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stores the databases and the list of media files of the given export version and removes the oldest versions of the datasource from the
+	 * history.
+	 */
+	private void addToHistory(Long id, String version, File withVideos, File withoutVideos, MySqlToSqLiteConverter converter)
+		throws IOException
+	{
+		// The databases are temporary files that have already been zipped, so move them rather than copying them
+		Files.move(withVideos.toPath(), getHistoryFile(id, version, "true.sqlite").toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.move(withoutVideos.toPath(), getHistoryFile(id, version, "false.sqlite").toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		// The manifest is written last, a version only counts as part of the history once it exists
+		Properties manifest = new Properties();
+		for (Map.Entry<String, File> media : converter.getMediaFiles().entrySet())
+		{
+			File file = media.getValue();
+			manifest.setProperty(media.getKey(), file.length() + "," + file.lastModified() + "," + converter.getVideoFiles().contains(media.getKey()) + "," + file.getAbsolutePath());
+		}
+
+		try (OutputStream out = new FileOutputStream(getHistoryFile(id, version, "media")))
+		{
+			manifest.store(out, null);
+		}
+
+		// Only keep the latest versions
+		File[] manifests = historyFolder.listFiles(f -> f.getName().startsWith(id + "-") && f.getName().endsWith(".media"));
+
+		if (manifests != null && manifests.length > HISTORY_SIZE)
+		{
+			Arrays.sort(manifests, Comparator.comparingLong(File::lastModified).reversed());
+
+			for (int i = HISTORY_SIZE; i < manifests.length; i++)
+			{
+				String prefix = manifests[i].getName().substring(0, manifests[i].getName().length() - "media".length());
+
+				File[] files = historyFolder.listFiles(f -> f.getName().startsWith(prefix));
+				if (files != null)
+					Arrays.stream(files).forEach(File::delete);
+			}
+		}
+	}
+
+	private File getHistoryFile(Long id, String version, String suffix)
+	{
+		return new File(historyFolder, id + "-" + version + "." + suffix);
+	}
+
+	private static Properties readManifest(File file)
+		throws IOException
+	{
+		Properties result = new Properties();
+
+		try (InputStream in = new FileInputStream(file))
+		{
+			result.load(in);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Zips the given files into the given target file. The zip file is written to a temporary file first and then moved into place, so that
+	 * concurrent requests never see a partial file.
+	 *
+	 * @param files      The {@link File}s to add by their name in the zip file
+	 * @param targetFile The target {@link File}
+	 */
+	private void zipIt(Map<String, File> files, File targetFile)
+		throws ClosedByInterruptException
+	{
+		File temp = store.getTempFile(targetFile);
+
+		try
+		{
+			try (ZipWriter zip = new ZipWriter(temp))
+			{
+				for (Map.Entry<String, File> file : files.entrySet())
+					zip.add(file.getKey(), file.getValue());
+			}
+
+			store.publish(temp, targetFile);
+		}
+		catch (IOException e)
+		{
+			// Don't leave a broken file behind, it would be served as if it was complete
+			temp.delete();
+
+			if (e instanceof ClosedByInterruptException)
+				throw (ClosedByInterruptException) e;
+
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns all old exported files that have been generated for the given {@link BuntataDatasource} that aren't the given two files
+	 *
+	 * @param datasource The {@link BuntataDatasource} in question
+	 * @param t          The exported file including videos to ignore
+	 * @param f          The exported file excluding videos to ignore
+	 * @return An array of files that can be deleted
+	 */
+	private File[] getOldFiles(BuntataDatasource datasource, File t, File f)
+	{
+		return targetFolder.listFiles(file -> file.isFile() && !file.equals(t) && !file.equals(f) && file.getName().startsWith(datasource.getId() + "-"));
+	}
+
+	private void addRecord(ExportRecord record)
+	{
+		statistics.add(record);
+
+		synchronized (records)
+		{
+			Deque<ExportRecord> recent = records.computeIfAbsent(record.getDatasourceId(), k -> new ArrayDeque<>());
+			recent.addFirst(record);
+
+			while (recent.size() > RECORD_HISTORY_SIZE)
+				recent.removeLast();
+		}
+	}
+
+	/**
+	 * A queued or running export of a single {@link BuntataDatasource}. Tasks are ordered by {@link Priority} first and by the order they were
+	 * queued in second.
+	 */
+	private class ExportTask implements Runnable, Comparable<ExportTask>
+	{
+		private final BuntataDatasource         datasource;
+		private final long                      order  = sequence.incrementAndGet();
+		private final CompletableFuture<File[]> future = new CompletableFuture<>();
+		private final ExportRecord              record;
+		private volatile Priority               priority;
+		private boolean                         finished;
+
+		private ExportTask(BuntataDatasource datasource, Priority priority)
+		{
+			this.datasource = datasource;
+			this.priority = priority;
+			this.record = new ExportRecord(datasource.getId(), priority);
+		}
+
+		@Override
+		public void run()
+		{
+			// Interrupt the export if it takes too long, the converter and the zip writer both stop on interrupts
+			Thread thread = Thread.currentThread();
+			ScheduledFuture<?> timeout = watchdog.schedule(() ->
+			{
+				synchronized (this)
+				{
+					if (!finished)
+					{
+						Logger.getLogger("").log(Level.WARNING, "Export of data source " + datasource.getId() + " timed out");
+						thread.interrupt();
+					}
+				}
+			}, EXPORT_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+
+			record.setState(ExportRecord.State.RUNNING)
+				  .setStartedOn(new Date());
+
+			try
+			{
+				File[] files = makeSureExists(datasource, record);
+
+				if (record.getState() == ExportRecord.State.RUNNING)
+					record.setState((files[0] != null && files[1] != null) ? ExportRecord.State.SUCCEEDED : ExportRecord.State.FAILED);
+
+				future.complete(files);
+			}
+			catch (RuntimeException e)
+			{
+				record.setState(ExportRecord.State.FAILED)
+					  .setError(e.toString());
+				future.completeExceptionally(e);
+			}
+			finally
+			{
+				timeout.cancel(false);
+				record.setFinishedOn(new Date());
+				addRecord(record);
+
+				tasks.remove(datasource.getId(), this);
+
+				// Don't let a late timeout interrupt the next export on this thread
+				synchronized (this)
+				{
+					finished = true;
+					Thread.interrupted();
+				}
+			}
+		}
+
+		@Override
+		public int compareTo(ExportTask o)
+		{
+			int result = priority.compareTo(o.priority);
+
+			return result != 0 ? result : Long.compare(order, o.order);
+		}
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server.job;
+
+import java.util.*;
+
+import jhi.buntata.resource.*;
+import jhi.buntata.sqlite.*;
+
+/**
+ * {@link ExportRecord} describes a single (queued, running or finished) export of a {@link BuntataDatasource}: when it ran, how long each step
+ * took, how much it wrote and how it ended.
+ *
+ * @author Sebastian Raubach
+ */
+public class ExportRecord
+{
+	public enum State
+	{
+		QUEUED,
+		RUNNING,
+		SUCCEEDED,
+		UP_TO_DATE,
+		FAILED,
+		CANCELLED
+	}
+
+	private final    Long                               datasourceId;
+	private final    Date                               queuedOn = new Date();
+	private volatile ExportCoordinator.Priority         priority;
+	private volatile State                              state    = State.QUEUED;
+	private volatile String                             version;
+	private volatile Date                               startedOn;
+	private volatile Date                               finishedOn;
+	private volatile List<MySqlToSqLiteConverter.Phase> phases   = Collections.emptyList();
+	private volatile long                               databaseSize;
+	private volatile int                                mediaFiles;
+	private volatile long                               mediaSize;
+	private volatile int                                missingFiles;
+	private volatile long                               zipSizeWithVideos;
+	private volatile long                               zipSizeWithoutVideos;
+	private volatile String                             error;
+
+	public ExportRecord(Long datasourceId, ExportCoordinator.Priority priority)
+	{
+		this.datasourceId = datasourceId;
+		this.priority = priority;
+	}
+
+	public Long getDatasourceId()
+	{
+		return datasourceId;
+	}
+
+	public Date getQueuedOn()
+	{
+		return queuedOn;
+	}
+
+	public ExportCoordinator.Priority getPriority()
+	{
+		return priority;
+	}
+
+	public ExportRecord setPriority(ExportCoordinator.Priority priority)
+	{
+		this.priority = priority;
+		return this;
+	}
+
+	public State getState()
+	{
+		return state;
+	}
+
+	public ExportRecord setState(State state)
+	{
+		this.state = state;
+		return this;
+	}
+
+	public String getVersion()
+	{
+		return version;
+	}
+
+	public ExportRecord setVersion(String version)
+	{
+		this.version = version;
+		return this;
+	}
+
+	public Date getStartedOn()
+	{
+		return startedOn;
+	}
+
+	public ExportRecord setStartedOn(Date startedOn)
+	{
+		this.startedOn = startedOn;
+		return this;
+	}
+
+	public Date getFinishedOn()
+	{
+		return finishedOn;
+	}
+
+	public ExportRecord setFinishedOn(Date finishedOn)
+	{
+		this.finishedOn = finishedOn;
+		return this;
+	}
+
+	/**
+	 * @return The total duration of the export in milliseconds or <code>null</code> if it hasn't finished yet
+	 */
+	public Long getDuration()
+	{
+		return (startedOn == null || finishedOn == null) ? null : finishedOn.getTime() - startedOn.getTime();
+	}
+
+	public List<MySqlToSqLiteConverter.Phase> getPhases()
+	{
+		return phases;
+	}
+
+	public ExportRecord setPhases(List<MySqlToSqLiteConverter.Phase> phases)
+	{
+		this.phases = new ArrayList<>(phases);
+		return this;
+	}
+
+	/**
+	 * @return The total number of rows written to the SQLite database
+	 */
+	public long getRows()
+	{
+		return phases.stream()
+					 .mapToLong(MySqlToSqLiteConverter.Phase::getRows)
+					 .sum();
+	}
+
+	public long getDatabaseSize()
+	{
+		return databaseSize;
+	}
+
+	public ExportRecord setDatabaseSize(long databaseSize)
+	{
+		this.databaseSize = databaseSize;
+		return this;
+	}
+
+	public int getMediaFiles()
+	{
+		return mediaFiles;
+	}
+
+	public ExportRecord setMediaFiles(int mediaFiles)
+	{
+		this.mediaFiles = mediaFiles;
+		return this;
+	}
+
+	public long getMediaSize()
+	{
+		return mediaSize;
+	}
+
+	public ExportRecord setMediaSize(long mediaSize)
+	{
+		this.mediaSize = mediaSize;
+		return this;
+	}
+
+	public int getMissingFiles()
+	{
+		return missingFiles;
+	}
+
+	public ExportRecord setMissingFiles(int missingFiles)
+	{
+		this.missingFiles = missingFiles;
+		return this;
+	}
+
+	public long getZipSizeWithVideos()
+	{
+		return zipSizeWithVideos;
+	}
+
+	public ExportRecord setZipSizeWithVideos(long zipSizeWithVideos)
+	{
+		this.zipSizeWithVideos = zipSizeWithVideos;
+		return this;
+	}
+
+	public long getZipSizeWithoutVideos()
+	{
+		return zipSizeWithoutVideos;
+	}
+
+	public ExportRecord setZipSizeWithoutVideos(long zipSizeWithoutVideos)
+	{
+		this.zipSizeWithoutVideos = zipSizeWithoutVideos;
+		return this;
+	}
+
+	public String getError()
+	{
+		return error;
+	}
+
+	public ExportRecord setError(String error)
+	{
+		this.error = error;
+		return this;
+	}
+}
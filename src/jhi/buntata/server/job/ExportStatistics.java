@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server.job;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import jhi.buntata.sqlite.*;
+
+/**
+ * {@link ExportStatistics} aggregates finished {@link ExportRecord}s into counters and exposes them in the Prometheus text format, so that
+ * export times and sizes can be tracked over time.
+ *
+ * @author Sebastian Raubach
+ */
+public class ExportStatistics
+{
+	private final ConcurrentMap<ExportRecord.State, AtomicLong> exports       = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, AtomicLong>             phaseDuration = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, AtomicLong>             phaseRows     = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Long, ExportRecord>             latest        = new ConcurrentHashMap<>();
+	private final AtomicLong                                    duration      = new AtomicLong();
+	private final AtomicLong                                    missingFiles  = new AtomicLong();
+	private final AtomicLong                                    bytesWritten  = new AtomicLong();
+
+	/**
+	 * Adds the given finished {@link ExportRecord} to the statistics.
+	 *
+	 * @param record The finished {@link ExportRecord}
+	 */
+	public void add(ExportRecord record)
+	{
+		exports.computeIfAbsent(record.getState(), k -> new AtomicLong()).incrementAndGet();
+
+		if (record.getState() != ExportRecord.State.SUCCEEDED)
+			return;
+
+		if (record.getDuration() != null)
+			duration.addAndGet(record.getDuration());
+
+		for (MySqlToSqLiteConverter.Phase phase : record.getPhases())
+		{
+			phaseDuration.computeIfAbsent(phase.getName(), k -> new AtomicLong()).addAndGet(phase.getDuration());
+			phaseRows.computeIfAbsent(phase.getName(), k -> new AtomicLong()).addAndGet(phase.getRows());
+		}
+
+		missingFiles.addAndGet(record.getMissingFiles());
+		bytesWritten.addAndGet(record.getDatabaseSize() + record.getZipSizeWithVideos() + record.getZipSizeWithoutVideos());
+		latest.put(record.getDatasourceId(), record);
+	}
+
+	/**
+	 * Returns the statistics in the Prometheus text exposition format.
+	 *
+	 * @param queued  The number of currently queued exports
+	 * @param running The number of currently running exports
+	 * @return The statistics in the Prometheus text exposition format
+	 */
+	public String toPrometheus(int queued, int running)
+	{
+		StringBuilder builder = new StringBuilder();
+
+		appendHeader(builder, "buntata_exports_total", "counter", "Finished exports by result");
+		for (ExportRecord.State state : ExportRecord.State.values())
+		{
+			AtomicLong count = exports.get(state);
+			if (count != null)
+				append(builder, "buntata_exports_total{state=\"" + state.name().toLowerCase(Locale.ROOT) + "\"}", count.get());
+		}
+
+		appendHeader(builder, "buntata_exports_queued", "gauge", "Exports waiting for a worker");
+		append(builder, "buntata_exports_queued", queued);
+		appendHeader(builder, "buntata_exports_running", "gauge", "Exports currently running");
+		append(builder, "buntata_exports_running", running);
+
+		appendHeader(builder, "buntata_export_duration_milliseconds_total", "counter", "Total duration of all successful exports");
+		append(builder, "buntata_export_duration_milliseconds_total", duration.get());
+
+		appendHeader(builder, "buntata_export_phase_duration_milliseconds_total", "counter", "Total duration of the export steps");
+		for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(phaseDuration).entrySet())
+			append(builder, "buntata_export_phase_duration_milliseconds_total{phase=\"" + entry.getKey() + "\"}", entry.getValue().get());
+
+		appendHeader(builder, "buntata_export_phase_rows_total", "counter", "Total number of rows written by the export steps");
+		for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(phaseRows).entrySet())
+			append(builder, "buntata_export_phase_rows_total{phase=\"" + entry.getKey() + "\"}", entry.getValue().get());
+
+		appendHeader(builder, "buntata_export_missing_files_total", "counter", "Total number of referenced media files that couldn't be found");
+		append(builder, "buntata_export_missing_files_total", missingFiles.get());
+
+		appendHeader(builder, "buntata_export_written_bytes_total", "counter", "Total number of bytes written to databases and zip files");
+		append(builder, "buntata_export_written_bytes_total", bytesWritten.get());
+
+		List<ExportRecord> records = new ArrayList<>(latest.values());
+		records.sort(Comparator.comparing(ExportRecord::getDatasourceId));
+
+		appendHeader(builder, "buntata_export_last_duration_milliseconds", "gauge", "Duration of the last successful export per data source");
+		for (ExportRecord record : records)
+			append(builder, "buntata_export_last_duration_milliseconds{datasource=\"" + record.getDatasourceId() + "\"}", record.getDuration() == null ? 0 : record.getDuration());
+
+		appendHeader(builder, "buntata_export_last_zip_bytes", "gauge", "Size of the zip files of the last successful export per data source");
+		for (ExportRecord record : records)
+		{
+			append(builder, "buntata_export_last_zip_bytes{datasource=\"" + record.getDatasourceId() + "\",videos=\"true\"}", record.getZipSizeWithVideos());
+			append(builder, "buntata_export_last_zip_bytes{datasource=\"" + record.getDatasourceId() + "\",videos=\"false\"}", record.getZipSizeWithoutVideos());
+		}
+
+		return builder.toString();
+	}
+
+	private static void appendHeader(StringBuilder builder, String name, String type, String help)
+	{
+		builder.append("# HELP ").append(name).append(" ").append(help).append("\n")
+			   .append("# TYPE ").append(name).append(" ").append(type).append("\n");
+	}
+
+	private static void append(StringBuilder builder, String name, long value)
+	{
+		builder.append(name).append(" ").append(value).append("\n");
+	}
+}
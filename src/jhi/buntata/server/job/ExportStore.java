@@ -0,0 +1,324 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server.job;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * {@link ExportStore} manages the exported files in a folder. Files are written to temporary names and atomically moved into place once they
+ * are complete, so that downloads never see partial files. Downloads hold a {@link Lease} on the file they're sending. Outdated files are
+ * retired rather than deleted and only removed once no download holds a lease on them anymore and a grace period has passed. The total size of
+ * the folder, including the export history (see {@link #getHistoryFolder()}), is kept within a budget by deleting the least recently used files
+ * that aren't leased.
+ *
+ * @author Sebastian Raubach
+ */
+public class ExportStore
+{
+	/** Retired files are kept at least this long, so that clients can still resume their downloads */
+	private static final long   GRACE_PERIOD_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	/** Leases older than this are considered abandoned, e.g. because the connection was dropped without the response being released */
+	private static final long   MAX_LEASE_MILLIS    = TimeUnit.HOURS.toMillis(6);
+	private static final String TEMP_PREFIX         = ".tmp-";
+	private static final String HISTORY_SUB_FOLDER  = "history";
+	/** History files with this suffix are deleted first when evicting, a history entry is only complete as long as it exists */
+	private static final String MANIFEST_SUFFIX     = ".media";
+
+	private final File folder;
+	private final File historyFolder;
+	private final long maxBytes;
+
+	/** Set if the last {@link #cleanup()} couldn't get within the budget because of leased files */
+	private boolean overBudget = false;
+
+	/** File name to the times the currently held leases were acquired */
+	private final Map<String, List<Long>> leases     = new HashMap<>();
+	/** File name to the time the file was retired */
+	private final Map<String, Long>       retired    = new HashMap<>();
+	/** File name to the time the file was last leased */
+	private final Map<String, Long>       lastAccess = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a new {@link ExportStore}. Temporary files left behind by a previous run are deleted and the budget is enforced right away.
+	 *
+	 * @param folder   The folder to store the files in
+	 * @param maxBytes The maximal total size of all files in bytes
+	 */
+	public ExportStore(File folder, long maxBytes)
+	{
+		this.folder = folder;
+		this.historyFolder = new File(folder, HISTORY_SUB_FOLDER);
+		this.historyFolder.mkdirs();
+		this.maxBytes = maxBytes;
+
+		File[] temps = folder.listFiles(f -> f.getName().startsWith(TEMP_PREFIX));
+		if (temps != null)
+			Arrays.stream(temps).forEach(File::delete);
+
+		cleanup();
+	}
+
+	public File getFolder()
+	{
+		return folder;
+	}
+
+	/**
+	 * Returns the folder the export history is kept in. Its files count towards the budget. They're evicted per entry, i.e. all files that share
+	 * the part of their name before the first dot are deleted together, the manifest ({@value #MANIFEST_SUFFIX}) first.
+	 *
+	 * @return The history folder
+	 */
+	public File getHistoryFolder()
+	{
+		return historyFolder;
+	}
+
+	/**
+	 * Returns the temporary file to write the given target file to before publishing it.
+	 *
+	 * @param target The target file
+	 * @return The temporary file
+	 */
+	public File getTempFile(File target)
+	{
+		return new File(target.getParentFile(), TEMP_PREFIX + target.getName());
+	}
+
+	/**
+	 * Atomically moves the given completely written temporary file to its target location.
+	 *
+	 * @param temp   The temporary file (see {@link #getTempFile(File)})
+	 * @param target The target file
+	 * @throws IOException Thrown if moving fails
+	 */
+	public void publish(File temp, File target)
+		throws IOException
+	{
+		Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+		synchronized (this)
+		{
+			retired.remove(target.getName());
+		}
+
+		lastAccess.put(target.getName(), System.currentTimeMillis());
+	}
+
+	/**
+	 * Acquires a {@link Lease} on the given file. The file won't be deleted until the lease is released.
+	 *
+	 * @param file The file
+	 * @return The {@link Lease} or <code>null</code> if the file doesn't exist (anymore)
+	 */
+	public synchronized Lease acquire(File file)
+	{
+		if (!file.exists())
+			return null;
+
+		long now = System.currentTimeMillis();
+		leases.computeIfAbsent(file.getName(), k -> new ArrayList<>()).add(now);
+		lastAccess.put(file.getName(), now);
+
+		return new Lease(file.getName(), now);
+	}
+
+	/**
+	 * Marks the given file as outdated. It will be deleted by {@link #cleanup()} once it's no longer leased and the grace period has passed.
+	 *
+	 * @param file The outdated file
+	 */
+	public synchronized void retire(File file)
+	{
+		retired.putIfAbsent(file.getName(), System.currentTimeMillis());
+	}
+
+	/**
+	 * Deletes retired files that are no longer needed and then the least recently used files until the total size is within the budget.
+	 */
+	public synchronized void cleanup()
+	{
+		long now = System.currentTimeMillis();
+
+		// Forget abandoned leases
+		leases.values().forEach(l -> l.removeIf(acquired -> now - acquired > MAX_LEASE_MILLIS));
+		leases.values().removeIf(List::isEmpty);
+
+		Iterator<Map.Entry<String, Long>> it = retired.entrySet().iterator();
+		while (it.hasNext())
+		{
+			Map.Entry<String, Long> entry = it.next();
+
+			if (now - entry.getValue() >= GRACE_PERIOD_MILLIS && !leases.containsKey(entry.getKey()))
+			{
+				delete(entry.getKey());
+				it.remove();
+			}
+		}
+
+		List<Entry> entries = getEntries();
+		long total = entries.stream().mapToLong(e -> e.size).sum();
+
+		// Evict the least recently used entries, they're exported again when they're requested the next time
+		entries.sort(Comparator.comparingLong(e -> e.lastUsed));
+
+		for (Entry entry : entries)
+		{
+			if (total <= maxBytes)
+				break;
+
+			if (entry.name != null && leases.containsKey(entry.name))
+				continue;
+
+			if (entry.delete())
+			{
+				if (entry.name != null)
+				{
+					retired.remove(entry.name);
+					lastAccess.remove(entry.name);
+				}
+
+				total -= entry.size;
+			}
+		}
+
+		overBudget = total > maxBytes;
+	}
+
+	/**
+	 * Returns the exported files and the history entries.
+	 */
+	private List<Entry> getEntries()
+	{
+		List<Entry> result = new ArrayList<>();
+
+		File[] files = folder.listFiles(f -> f.isFile() && !f.getName().startsWith(TEMP_PREFIX));
+		if (files != null)
+		{
+			for (File file : files)
+				result.add(new Entry(file.getName(), Collections.singletonList(file), lastAccess.getOrDefault(file.getName(), file.lastModified())));
+		}
+
+		File[] history = historyFolder.listFiles(File::isFile);
+		if (history != null)
+		{
+			Map<String, List<File>> groups = new HashMap<>();
+
+			for (File file : history)
+			{
+				int index = file.getName().indexOf('.');
+				groups.computeIfAbsent(index < 0 ? file.getName() : file.getName().substring(0, index), k -> new ArrayList<>()).add(file);
+			}
+
+			for (List<File> group : groups.values())
+			{
+				group.sort(Comparator.comparing((File f) -> !f.getName().endsWith(MANIFEST_SUFFIX)));
+				result.add(new Entry(null, group, group.stream().mapToLong(File::lastModified).max().orElse(0)));
+			}
+		}
+
+		return result;
+	}
+
+	private synchronized void release(Lease lease)
+	{
+		List<Long> held = leases.get(lease.name);
+
+		if (held != null)
+		{
+			held.remove(lease.acquired);
+
+			if (held.isEmpty())
+			{
+				leases.remove(lease.name);
+
+				// The file may have been all that kept the store from getting within its budget
+				if (overBudget)
+					cleanup();
+			}
+		}
+	}
+
+	private boolean delete(String name)
+	{
+		File file = new File(folder, name);
+		lastAccess.remove(name);
+
+		return !file.exists() || file.delete();
+	}
+
+	/**
+	 * A file or a history entry (consisting of several files) that counts towards the budget.
+	 */
+	private static class Entry
+	{
+		/** The name of the exported file or <code>null</code> for history entries, which can't be leased */
+		private final String     name;
+		private final List<File> files;
+		private final long       size;
+		private final long       lastUsed;
+
+		private Entry(String name, List<File> files, long lastUsed)
+		{
+			this.name = name;
+			this.files = files;
+			this.size = files.stream().mapToLong(File::length).sum();
+			this.lastUsed = lastUsed;
+		}
+
+		private boolean delete()
+		{
+			boolean result = true;
+
+			for (File file : files)
+				result &= !file.exists() || file.delete();
+
+			return result;
+		}
+	}
+
+	/**
+	 * A {@link Lease} on a file prevents it from being deleted until {@link #release()} is called.
+	 */
+	public class Lease
+	{
+		private final String name;
+		private final Long   acquired;
+		private       boolean released = false;
+
+		private Lease(String name, long acquired)
+		{
+			this.name = name;
+			this.acquired = acquired;
+		}
+
+		/**
+		 * Releases the lease. Calling this more than once has no effect.
+		 */
+		public synchronized void release()
+		{
+			if (released)
+				return;
+
+			released = true;
+			ExportStore.this.release(this);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server.job;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/**
+ * {@link FileSizeReader} reads the sizes of many files in parallel. Media files can be overwritten in place, which changes neither the modification
+ * time of their folder nor anything in the database, so every requested file is looked at on each call. Each lookup is a single attribute read
+ * and the lookups run on a bounded pool that lives as long as the reader.
+ *
+ * @author Sebastian Raubach
+ */
+public class FileSizeReader
+{
+	/** The number of files looked at by a single task */
+	private static final int CHUNK_SIZE = 256;
+
+	private final ExecutorService executor;
+
+	/**
+	 * Creates a new {@link FileSizeReader}
+	 *
+	 * @param parallelism The number of threads used to access the file system
+	 */
+	public FileSizeReader(int parallelism)
+	{
+		this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism), r ->
+		{
+			Thread thread = new Thread(r, "buntata-file-size");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns the sizes of the given files. Files that don't exist or aren't regular files are left out.
+	 *
+	 * @param files The {@link File}s
+	 * @return The sizes of the existing files by their absolute path
+	 * @throws InterruptedException Thrown if the current thread is interrupted while waiting for the file system calls
+	 */
+	public Map<String, Long> getSizes(Collection<File> files)
+		throws InterruptedException
+	{
+		List<String> paths = files.stream()
+								  .map(f -> f.getAbsoluteFile().getPath())
+								  .distinct()
+								  .collect(Collectors.toList());
+
+		Map<String, Long> result = new ConcurrentHashMap<>();
+		List<Callable<Void>> tasks = new ArrayList<>();
+
+		for (int i = 0; i < paths.size(); i += CHUNK_SIZE)
+		{
+			List<String> chunk = paths.subList(i, Math.min(paths.size(), i + CHUNK_SIZE));
+			tasks.add(() ->
+			{
+				for (String path : chunk)
+				{
+					Long size = getSize(path);
+
+					if (size != null)
+						result.put(path, size);
+				}
+
+				return null;
+			});
+		}
+
+		executor.invokeAll(tasks);
+
+		return new HashMap<>(result);
+	}
+
+	private static Long getSize(String path)
+	{
+		try
+		{
+			BasicFileAttributes attributes = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+
+			return attributes.isRegularFile() ? attributes.size() : null;
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Stops the file system threads.
+	 */
+	public void shutdown()
+	{
+		executor.shutdownNow();
+	}
+}
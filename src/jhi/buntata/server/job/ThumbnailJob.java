@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.server.job;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import jhi.buntata.data.*;
+import jhi.buntata.resource.*;
+import jhi.buntata.server.image.*;
+
+/**
+ * This {@link Runnable} generates the default thumbnails ({@link ThumbnailService.Variant#DEFAULT}) of all {@link BuntataMedia} images that are
+ * either missing or older than their source image. Other variants are only generated on request. Only a few generations are queued at a time so
+ * that requests for thumbnails that aren't warmed up yet don't have to wait behind the whole backlog. The job stops once the thumbnail cache is
+ * full, so that warming up doesn't evict the thumbnails that are actually being used. It blocks while waiting for the generations, so it has to
+ * run on a scheduler of its own.
+ *
+ * @author Sebastian Raubach
+ */
+public class ThumbnailJob implements Runnable
+{
+	private final MediaDAO mediaDAO = new MediaDAO();
+
+	private final String           dataDir;
+	private final ThumbnailService thumbnailService;
+	private final int              parallelism;
+
+	public ThumbnailJob(String dataDir, ThumbnailService thumbnailService, int parallelism)
+	{
+		this.dataDir = dataDir;
+		this.thumbnailService = thumbnailService;
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	@Override
+	public void run()
+	{
+		Deque<CompletableFuture<File>> pending = new ArrayDeque<>();
+
+		for (BuntataMedia media : mediaDAO.getAllForType(BuntataMediaType.TYPE_IMAGE))
+		{
+			if (media.getInternalLink() == null)
+				continue;
+
+			File source = new File(dataDir, media.getInternalLink());
+
+			if (!source.exists() || !source.isFile() || !thumbnailService.needsUpdate(media, source))
+				continue;
+
+			if (thumbnailService.isCacheFull() || Thread.currentThread().isInterrupted())
+				break;
+
+			pending.add(thumbnailService.submit(media, source, ThumbnailService.Variant.DEFAULT));
+
+			// Wait for the oldest generation to finish before queuing more
+			if (pending.size() >= parallelism)
+				await(pending.poll());
+		}
+
+		while (!pending.isEmpty())
+			await(pending.poll());
+	}
+
+	private void await(CompletableFuture<File> future)
+	{
+		try
+		{
+			future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.sqlite;
+
+import java.io.*;
+
+/**
+ * {@link ExportException} is thrown by {@link MySqlToSqLiteConverter} if any part of the data source can't be copied. The resulting database is
+ * incomplete and must not be published.
+ *
+ * @author Sebastian Raubach
+ */
+public class ExportException extends IOException
+{
+	public ExportException(String message, Throwable cause)
+	{
+		super(message, cause);
+	}
+}
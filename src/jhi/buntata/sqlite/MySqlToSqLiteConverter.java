@@ -20,54 +20,118 @@ import java.io.*;
 import java.nio.file.*;
 import java.sql.*;
 import java.util.*;
-import java.util.stream.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
 
 import jhi.buntata.data.*;
 import jhi.buntata.resource.*;
 import jhi.database.server.*;
 import jhi.database.server.query.*;
 import jhi.database.shared.exception.*;
+import jhi.database.shared.util.*;
 
 /**
- * {@link MySqlToSqLiteConverter} converts the information for a single data source from MySQL to SQLite. <p> This is all run outside of Tomcat to
- * avoid loading the SQLite driver, which would lead to problems when trying to re-deploy applications as the driver uses native libraries.
+ * {@link MySqlToSqLiteConverter} converts the information for a single data source from MySQL to SQLite. <p> The server runs it in-process on
+ * its export executor (using the server's database configuration), the {@link #main(String[])} method can be used to run it manually. The
+ * conversion checks the interrupted flag of the current thread regularly, so it can be cancelled by interrupting it.
  *
  * @author Sebastian Raubach
  */
 public class MySqlToSqLiteConverter
 {
-	private final File target;
-	private final File folder;
+	/** The number of rows that are sent to SQLite at once */
+	private static final int BATCH_SIZE = 5000;
+	/** The SQLite page cache size during the export in KiB */
+	private static final int CACHE_SIZE = 65536;
+
+	private final long              id;
+	private final File              source;
+	private final File              target;
+	private final File              folder;
+	private final File              dataDir;
+	private final boolean           copyMedia;
+	private final Map<String, File> mediaFiles = new LinkedHashMap<>();
+	private final Set<String>       videoFiles = new HashSet<>();
+
+	private final List<Phase>       phases     = new ArrayList<>();
+
+	private Database sqlite;
+	private long     phaseRows;
+	private int      missingFiles;
 
 	public static void main(String[] args)
-		throws IOException
+		throws IOException, InterruptedException
 	{
 		int i = 0;
 
-		new MySqlToSqLiteConverter(Long.parseLong(args[i++]), Boolean.parseBoolean(args[i++]), new File(args[i++]), new File(args[i++]), args[i++], args[i++], args[i++]);
+		long id = Long.parseLong(args[i++]);
+		boolean includeVideos = Boolean.parseBoolean(args[i++]);
+		File source = new File(args[i++]);
+		File target = new File(args[i++]);
+
+		Database.init(args[i++], args[i++], args[i++]);
+
+		MySqlToSqLiteConverter converter = new MySqlToSqLiteConverter(id, source, target);
+		converter.convert();
+
+		if (!includeVideos)
+		{
+			removeVideos(target);
+
+			for (String video : converter.getVideoFiles())
+				converter.getMediaFiles().get(video).delete();
+		}
 	}
 
 	/**
-	 * Creates a new {@link MySqlToSqLiteConverter}
+	 * Creates a new {@link MySqlToSqLiteConverter} that copies the media files next to the target database. Relative media paths are resolved
+	 * against the working directory.
 	 *
-	 * @param id            The id of the {@link jhi.buntata.server.Datasource}
-	 * @param includeVideos Should videos be exported as well?
-	 * @param source        The source SQLite template database
-	 * @param target        The target SQLite database (what gets downloaded)
-	 * @param database      The MySQL database
-	 * @param username      The MySQL username
-	 * @param password      The MySQL password
-	 * @throws IOException  Thrown if any file i/o operation fails
-	 * @throws SQLException Thrown if any database interaction fails
+	 * @param id     The id of the {@link BuntataDatasource}
+	 * @param source The source SQLite template database
+	 * @param target The target SQLite database (what gets downloaded)
+	 * @see #MySqlToSqLiteConverter(long, File, File, File, boolean)
 	 */
-	private MySqlToSqLiteConverter(long id, boolean includeVideos, File source, File target, String database, String username, String password)
-		throws IOException
+	public MySqlToSqLiteConverter(long id, File source, File target)
 	{
+		this(id, source, target, null, true);
+	}
+
+	/**
+	 * Creates a new {@link MySqlToSqLiteConverter}. The MySQL database has to be initialized via {@link Database#init(String, String, String)}
+	 * before calling {@link #convert()}.
+	 *
+	 * @param id        The id of the {@link BuntataDatasource}
+	 * @param source    The source SQLite template database
+	 * @param target    The target SQLite database (what gets downloaded)
+	 * @param dataDir   The folder relative media paths are resolved against or <code>null</code> to use the working directory
+	 * @param copyMedia Should the media files be copied next to the target database? If not, {@link #getMediaFiles()} points to the originals.
+	 */
+	public MySqlToSqLiteConverter(long id, File source, File target, File dataDir, boolean copyMedia)
+	{
+		this.id = id;
+		this.source = source;
 		this.target = target;
 		this.folder = target.getParentFile();
-		this.folder.mkdirs();
+		this.dataDir = dataDir;
+		this.copyMedia = copyMedia;
+	}
 
-		Database.init(database, username, password);
+	/**
+	 * Runs the conversion. Media file names are written to the database relative to the export, {@link #getMediaFiles()} returns where the
+	 * files are. Use {@link #getVideoFiles()} and {@link #removeVideos(File)} to derive the export without videos from the result.
+	 *
+	 * @throws IOException          Thrown if any file i/o operation fails or any of the tables can't be copied (see {@link ExportException})
+	 * @throws InterruptedException Thrown if the current thread is interrupted while converting
+	 */
+	public void convert()
+		throws IOException, InterruptedException
+	{
+		this.folder.mkdirs();
+		this.mediaFiles.clear();
+		this.videoFiles.clear();
+		this.phases.clear();
+		this.missingFiles = 0;
 
 		// Copy the template database to a new location. Then write to it later.
 		Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
@@ -75,430 +139,533 @@ public class MySqlToSqLiteConverter
 		File copyrightSource = new File(source.getParentFile(), "copyright.txt");
 		File copyrightTarget = new File(target.getParentFile(), "copyright.txt");
 		if (copyrightSource.exists())
-			Files.copy(copyrightSource.toPath(), copyrightTarget.toPath(), StandardCopyOption.REPLACE_EXISTING);
-
-		// Copy the data source
-		copyDataSources(id);
-		// Copy all the nodes of this data source, then get their ids
-		List<Long> nodeIds = copyNodes(id);
-		// Copy all the attributes for the node ids, then get their ids
-		List<Long> attributeIds = copyAttributes(nodeIds);
-		// Copy all the attribute data for the node and attribute ids
-		copyAttributeData(nodeIds, attributeIds);
-		// Copy all the media types, then get their ids
-		List<Long> mediaTypeIds = copyMediaTypes(nodeIds);
-		// Copy all the media items, then get their ids
-		List<Long> mediaIds = copyMedia(nodeIds, mediaTypeIds, includeVideos);
-		// Copy all the node-media relationships
-		copyNodeMedia(nodeIds, mediaIds);
-		// Copy all the node-node relationships
-		copyRelationships(nodeIds);
-		// Copy all the node-node similarities
-		copySimilarities(nodeIds);
+			stage(copyrightSource, copyrightTarget);
+
+		// All tables are loaded through a single connection in a single transaction
+		try
+		{
+			sqlite = connectToSqlite();
+			List<String> indices = prepareBulkLoad();
+
+			// Everything is selected via joins on the data source id, so no id lists have to be kept in memory or sent to the database
+			// Copy the data source
+			phase("datasources", () -> copyDataSources(id));
+			// Copy all the nodes of this data source
+			phase("nodes", () -> copyNodes(id));
+			// Copy all the attributes used by the nodes
+			phase("attributes", () -> copyAttributes(id));
+			// Copy all the attribute data of the nodes
+			phase("attributevalues", () -> copyAttributeData(id));
+			// Copy all the media types used by the nodes
+			phase("mediatypes", () -> copyMediaTypes(id));
+			// Copy all the media items of the nodes
+			phase("media", () -> copyMedia(id));
+			// Copy all the node-media relationships
+			phase("nodemedia", () -> copyNodeMedia(id));
+			// Copy all the node-node relationships
+			phase("relationships", () -> copyRelationships(id));
+			// Copy all the node-node similarities
+			phase("similarities", () -> copySimilarities(id));
+
+			phase("indices", () -> finishBulkLoad(indices));
+		}
+		catch (DatabaseException | SQLException e)
+		{
+			throw new IOException(e);
+		}
+		finally
+		{
+			if (sqlite != null)
+				sqlite.close();
+			sqlite = null;
+		}
 	}
 
 	/**
-	 * Creates an SQL placeholder of the given size, e.g. passing 4 will return <code>"?, ?, ?, ?</code>
+	 * Runs the given step of the conversion and records its duration and the number of rows it wrote.
 	 *
-	 * @param size The number of placeholder items
-	 * @return The generated String
+	 * @param name The name of the step
+	 * @param step The step
 	 */
-	private String getFormattedPlaceholder(int size)
+	private void phase(String name, Step step)
+		throws InterruptedException, ExportException
 	{
-		if (size < 1)
-			return "";
+		long start = System.nanoTime();
+		phaseRows = 0;
+
+		try
+		{
+			step.run();
+		}
+		catch (DatabaseException | SQLException | IOException e)
+		{
+			// A partial database must never be published, so any failure fails the whole conversion
+			throw new ExportException("Copying the " + name + " of data source " + id + " failed", e);
+		}
 
-		return IntStream.range(0, size)
-						.mapToObj(i -> "?")
-						.collect(Collectors.joining(", "));
+		phases.add(new Phase(name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), phaseRows));
 	}
 
 	/**
-	 * Copies the {@link BuntataRelationship} objects between the given {@link BuntataNode} ids.
+	 * Returns the duration and number of rows of the individual steps of the last conversion.
 	 *
-	 * @param nodeIds The {@link BuntataNode} ids
+	 * @return The {@link Phase}s of the last conversion
 	 */
-	private void copyRelationships(List<Long> nodeIds)
+	public List<Phase> getPhases()
 	{
-		if (nodeIds.size() < 1)
-			return;
+		return Collections.unmodifiableList(phases);
+	}
 
-		try
-		{
-			DatabaseObjectQuery.DatabaseObjectStreamer<BuntataRelationship> streamer = new DatabaseObjectQuery<BuntataRelationship>("SELECT * FROM relationships WHERE parent IN (" + getFormattedPlaceholder(nodeIds.size()) + ") AND child IN (" + getFormattedPlaceholder(nodeIds.size()) + ")")
-				.setLongs(nodeIds)
-				.setLongs(nodeIds)
-				.getStreamer(RelationshipDAO.Parser.Inst.get());
+	/**
+	 * Returns the number of media files that are referenced by the data source, but couldn't be found.
+	 *
+	 * @return The number of missing media files
+	 */
+	public int getMissingFiles()
+	{
+		return missingFiles;
+	}
 
-			BuntataRelationship relationship;
+	/**
+	 * Returns the media files of the export (including the data source icon) by their name in the export.
+	 *
+	 * @return The media files by their name in the export
+	 */
+	public Map<String, File> getMediaFiles()
+	{
+		return Collections.unmodifiableMap(mediaFiles);
+	}
 
-			Database database = connectToSqlite();
-			database.getConnection().setAutoCommit(false);
-			DatabaseStatement stmt = RelationshipDAO.Writer.Inst.get().getStatement(database);
-			while ((relationship = streamer.next()) != null)
-			{
-				RelationshipDAO.Writer.Inst.get().writeBatched(relationship, stmt);
-			}
-			stmt.executeBatch();
-			database.getConnection().setAutoCommit(true);
-			database.close();
+	/**
+	 * Returns the names of the media files that are videos.
+	 *
+	 * @return The names of the video files
+	 * @see #getMediaFiles()
+	 */
+	public Set<String> getVideoFiles()
+	{
+		return Collections.unmodifiableSet(videoFiles);
+	}
+
+	/**
+	 * Removes the internal links of all videos from the given SQLite database. The external links will still be available (YouTube, etc.)
+	 *
+	 * @param database The SQLite database
+	 */
+	public static void removeVideos(File database)
+	{
+		try (Database sqlite = Database.connect(Database.DatabaseType.SQLITE, database.getAbsolutePath(), null, null))
+		{
+			DatabaseStatement stmt = sqlite.prepareStatement("UPDATE media SET internal_link = NULL WHERE mediatype_id IN (SELECT id FROM mediatypes WHERE name = ?)");
+			stmt.setString(1, BuntataMediaType.TYPE_VIDEO);
+			stmt.executeUpdate();
 		}
-		catch (DatabaseException | SQLException e)
+		catch (DatabaseException e)
 		{
 			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * Copies the {@link BuntataRelationship} objects between the given {@link BuntataNode} ids.
+	 * Throws an {@link InterruptedException} if the current thread has been interrupted, i.e. the conversion has been cancelled.
 	 *
-	 * @param nodeIds The {@link BuntataNode} ids
+	 * @throws InterruptedException Thrown if the current thread has been interrupted
 	 */
-	private void copySimilarities(List<Long> nodeIds)
+	private void checkInterrupted()
+		throws InterruptedException
 	{
-		if (nodeIds.size() < 1)
-			return;
+		if (Thread.currentThread().isInterrupted())
+			throw new InterruptedException("Conversion of data source " + id + " cancelled");
+	}
 
-		try
+	/**
+	 * Switches the SQLite database into bulk-load mode: no rollback journal, no syncing, a large page cache and a single transaction. The
+	 * indices of the template database are dropped, so that they can be built in one go after loading.
+	 *
+	 * @return The SQL statements that re-create the dropped indices
+	 */
+	private List<String> prepareBulkLoad()
+		throws SQLException
+	{
+		List<String> indices = new ArrayList<>();
+
+		try (Statement stmt = sqlite.getConnection().createStatement())
 		{
-			DatabaseObjectQuery.DatabaseObjectStreamer<BuntataSimilarity> streamer = new DatabaseObjectQuery<BuntataSimilarity>("SELECT * FROM similarities WHERE node_a_id IN (" + getFormattedPlaceholder(nodeIds.size()) + ") AND node_b_id IN (" + getFormattedPlaceholder(nodeIds.size()) + ")")
-				.setLongs(nodeIds)
-				.setLongs(nodeIds)
-				.getStreamer(SimilarityDAO.Parser.Inst.get());
-
-			Database database = connectToSqlite();
-			database.getConnection().setAutoCommit(false);
-			BuntataSimilarity similarity;
-			DatabaseStatement stmt = SimilarityDAO.Writer.Inst.get().getStatement(database);
-			while ((similarity = streamer.next()) != null)
+			// The file is thrown away if anything goes wrong, so there's no need to be able to recover it
+			stmt.execute("PRAGMA journal_mode = OFF");
+			stmt.execute("PRAGMA synchronous = OFF");
+			stmt.execute("PRAGMA temp_store = MEMORY");
+			stmt.execute("PRAGMA cache_size = -" + CACHE_SIZE);
+
+			Map<String, String> existing = new LinkedHashMap<>();
+			try (ResultSet rs = stmt.executeQuery("SELECT name, sql FROM sqlite_master WHERE type = 'index' AND sql IS NOT NULL"))
+			{
+				while (rs.next())
+					existing.put(rs.getString(1), rs.getString(2));
+			}
+
+			for (Map.Entry<String, String> index : existing.entrySet())
 			{
-				SimilarityDAO.Writer.Inst.get().writeBatched(similarity, stmt);
+				stmt.execute("DROP INDEX \"" + index.getKey() + "\"");
+				indices.add(index.getValue());
 			}
-			stmt.executeBatch();
-			database.getConnection().setAutoCommit(true);
-			database.close();
 		}
-		catch (DatabaseException | SQLException e)
+
+		sqlite.getConnection().setAutoCommit(false);
+
+		return indices;
+	}
+
+	/**
+	 * Commits the loaded data, re-creates the indices and compacts the database, so that the app gets a small file that is ready to be
+	 * queried.
+	 *
+	 * @param indices The SQL statements that re-create the indices
+	 */
+	private void finishBulkLoad(List<String> indices)
+		throws SQLException
+	{
+		try (Statement stmt = sqlite.getConnection().createStatement())
 		{
-			e.printStackTrace();
+			for (String index : indices)
+				stmt.execute(index);
+
+			sqlite.getConnection().commit();
+			sqlite.getConnection().setAutoCommit(true);
+
+			stmt.execute("VACUUM");
+			stmt.execute("ANALYZE");
 		}
 	}
 
 	/**
-	 * Copies the {@link BuntataNodeMedia} objects between the given {@link BuntataNode} and {@link BuntataMedia} ids.
+	 * Streams the results of the given query into the SQLite database using the given writer. Rows are sent to SQLite in batches of {@link
+	 * #BATCH_SIZE}, so memory usage doesn't depend on the size of the data source. The current thread's interrupted flag is checked for every
+	 * row and the streamer is closed in any case.
 	 *
-	 * @param nodeIds  The {@link BuntataNode} ids
-	 * @param mediaIds The {@link BuntataMedia} ids
+	 * @param streamer The {@link DatabaseObjectQuery.DatabaseObjectStreamer} returning the MySQL data
+	 * @param writer   The {@link DatabaseObjectWriter} writing the SQLite data
+	 * @param handler  An optional {@link RowHandler} that gets called for each object before it is written
 	 */
-	private void copyNodeMedia(List<Long> nodeIds, List<Long> mediaIds)
+	private <T extends DatabaseObject> void copy(DatabaseObjectQuery.DatabaseObjectStreamer<T> streamer, DatabaseObjectWriter<T> writer, RowHandler<T> handler)
+		throws DatabaseException, SQLException, IOException, InterruptedException
 	{
-		if (nodeIds.size() < 1 || mediaIds.size() < 1)
-			return;
-
 		try
 		{
-			DatabaseObjectQuery.DatabaseObjectStreamer<BuntataNodeMedia> streamer = new DatabaseObjectQuery<BuntataNodeMedia>("SELECT * FROM nodemedia WHERE node_id IN (" + getFormattedPlaceholder(nodeIds.size()) + ") AND media_id IN (" + getFormattedPlaceholder(mediaIds.size()) + ")")
-				.setLongs(nodeIds)
-				.setLongs(mediaIds)
-				.getStreamer(NodeMediaDAO.Parser.Inst.get());
-
-			Database database = connectToSqlite();
-			database.getConnection().setAutoCommit(false);
-			BuntataNodeMedia nodeMedia;
-			DatabaseStatement stmt = NodeMediaDAO.Writer.Inst.get().getStatement(database);
-			while ((nodeMedia = streamer.next()) != null)
+			DatabaseStatement stmt = writer.getStatement(sqlite);
+
+			int count = 0;
+			T object;
+			while ((object = streamer.next()) != null)
 			{
-				NodeMediaDAO.Writer.Inst.get().writeBatched(nodeMedia, stmt);
+				checkInterrupted();
+
+				if (handler != null)
+					handler.handle(object);
+
+				writer.writeBatched(object, stmt);
+
+				phaseRows++;
+
+				if (++count % BATCH_SIZE == 0)
+					stmt.executeBatch();
 			}
-			stmt.executeBatch();
-			database.getConnection().setAutoCommit(true);
-			database.close();
+
+			if (count % BATCH_SIZE != 0)
+				stmt.executeBatch();
 		}
-		catch (DatabaseException | SQLException e)
+		finally
 		{
-			e.printStackTrace();
+			streamer.close();
 		}
 	}
 
 	/**
-	 * Copies the {@link BuntataMedia} for the given {@link BuntataNode} and {@link BuntataMediaType} ids.
+	 * Copies the {@link BuntataRelationship} objects between the {@link BuntataNode}s of the given {@link BuntataDatasource} id.
 	 *
-	 * @param nodeIds       The {@link BuntataNode} ids
-	 * @param mediaTypeIds  The {@link BuntataMediaType} ids
-	 * @param includeVideos Should videos be included?
-	 * @return The ids of the {@link BuntataMedia} objects that have been copied
+	 * @param id The {@link BuntataDatasource} id
 	 */
-	private List<Long> copyMedia(List<Long> nodeIds, List<Long> mediaTypeIds, boolean includeVideos)
+	private void copyRelationships(long id)
+		throws DatabaseException, SQLException, IOException, InterruptedException
 	{
-		List<Long> ids = new ArrayList<>();
+		copy(new DatabaseObjectQuery<BuntataRelationship>("SELECT relationships.* FROM relationships INNER JOIN nodes parents ON parents.id = relationships.parent INNER JOIN nodes children ON children.id = relationships.child WHERE parents.datasource_id = ? AND children.datasource_id = ?")
+				 .setLong(id)
+				 .setLong(id)
+				 .getStreamer(RelationshipDAO.Parser.Inst.get()),
+			RelationshipDAO.Writer.Inst.get(), null);
+	}
 
-		if (nodeIds.size() < 1 || mediaTypeIds.size() < 1)
-			return ids;
+	/**
+	 * Copies the {@link BuntataSimilarity} objects between the {@link BuntataNode}s of the given {@link BuntataDatasource} id.
+	 *
+	 * @param id The {@link BuntataDatasource} id
+	 */
+	private void copySimilarities(long id)
+		throws DatabaseException, SQLException, IOException, InterruptedException
+	{
+		copy(new DatabaseObjectQuery<BuntataSimilarity>("SELECT similarities.* FROM similarities INNER JOIN nodes a ON a.id = similarities.node_a_id INNER JOIN nodes b ON b.id = similarities.node_b_id WHERE a.datasource_id = ? AND b.datasource_id = ?")
+				 .setLong(id)
+				 .setLong(id)
+				 .getStreamer(SimilarityDAO.Parser.Inst.get()),
+			SimilarityDAO.Writer.Inst.get(), null);
+	}
 
-		try
-		{
-			DatabaseObjectQuery.DatabaseObjectStreamer<BuntataMedia> streamer = new DatabaseObjectQuery<BuntataMedia>("SELECT * FROM media WHERE EXISTS (SELECT 1 FROM nodemedia WHERE nodemedia.media_id = media.id AND nodemedia.node_id IN (" + getFormattedPlaceholder(nodeIds.size()) + ")) AND media.mediatype_id IN (" + getFormattedPlaceholder(mediaTypeIds.size()) + ")")
-				.setLongs(nodeIds)
-				.setLongs(mediaTypeIds)
-				.getStreamer(MediaDAO.Parser.Inst.get());
-
-			BuntataMedia media;
-			Database database = connectToSqlite();
-			database.getConnection().setAutoCommit(false);
-			DatabaseStatement stmt = MediaDAO.Writer.Inst.get().getStatement(database);
-			while ((media = streamer.next()) != null)
-			{
-				File source = new File(media.getInternalLink());
+	/**
+	 * Copies the {@link BuntataNodeMedia} objects of the {@link BuntataNode}s of the given {@link BuntataDatasource} id.
+	 *
+	 * @param id The {@link BuntataDatasource} id
+	 */
+	private void copyNodeMedia(long id)
+		throws DatabaseException, SQLException, IOException, InterruptedException
+	{
+		copy(new DatabaseObjectQuery<BuntataNodeMedia>("SELECT nodemedia.* FROM nodemedia INNER JOIN nodes ON nodes.id = nodemedia.node_id WHERE nodes.datasource_id = ?")
+				 .setLong(id)
+				 .getStreamer(NodeMediaDAO.Parser.Inst.get()),
+			NodeMediaDAO.Writer.Inst.get(), null);
+	}
 
-				BuntataMediaType type = new DatabaseObjectQuery<BuntataMediaType>("SELECT * FROM mediatypes WHERE id = ?")
-					.setLong(media.getMediaTypeId())
-					.run()
-					.getObject(MediaTypeDAO.Parser.Inst.get());
+	/**
+	 * Copies the {@link BuntataMedia} of the {@link BuntataNode}s of the given {@link BuntataDatasource} id.
+	 *
+	 * @param id The {@link BuntataDatasource} id
+	 */
+	private void copyMedia(long id)
+		throws DatabaseException, SQLException, IOException, InterruptedException
+	{
+		copy(new DatabaseObjectQuery<BuntataMedia>("SELECT * FROM media WHERE EXISTS (SELECT 1 FROM nodemedia INNER JOIN nodes ON nodes.id = nodemedia.node_id WHERE nodemedia.media_id = media.id AND nodes.datasource_id = ?)")
+				 .setLong(id)
+				 .getStreamer(MediaDAO.Parser.Inst.get()),
+			MediaDAO.Writer.Inst.get(), media ->
+			{
+				File source = resolve(media.getInternalLink());
 
-				boolean isVideo = BuntataMediaType.TYPE_VIDEO.equals(type.getName());
+				boolean isVideo = MediaTypeRegistry.Inst.get().is(media.getMediaTypeId(), BuntataMediaType.TYPE_VIDEO);
 
-				// Set the internal link of videos to null if this has been requested by the client. The external link will still be available (YouTube, etc.)
-				if (isVideo && !includeVideos)
+				// Now add the media file
+				if (source != null && source.exists())
 				{
-					System.out.println("SKIP");
-					media.setInternalLink(null);
+					addMediaFile(source);
+					media.setInternalLink(source.getName());
+
+					// Remember the videos so that the export without videos can leave them out
+					if (isVideo)
+						videoFiles.add(source.getName());
 				}
 				else
 				{
-					// Now copy the media file
-					if (source.exists())
-					{
-						System.out.println(source.getAbsolutePath());
-						System.out.println(new File(folder, source.getName()).getAbsolutePath());
-						Files.copy(source.toPath(), new File(folder, source.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
-						media.setInternalLink(source.getName());
-					}
-					else
-					{
-						System.out.println("FILE NOT FOUND");
-						media.setInternalLink(null);
-					}
+					Logger.getLogger("").log(Level.WARNING, "Media file not found: " + media.getInternalLink());
+					missingFiles++;
+					media.setInternalLink(null);
 				}
+			});
+	}
 
-				MediaDAO.Writer.Inst.get().writeBatched(media, stmt);
+	/**
+	 * Copy the {@link BuntataMediaType}s used by the {@link BuntataNode}s of the given {@link BuntataDatasource} id.
+	 *
+	 * @param id The {@link BuntataDatasource} id
+	 */
+	private void copyMediaTypes(long id)
+		throws DatabaseException, SQLException, IOException, InterruptedException
+	{
+		copy(new DatabaseObjectQuery<BuntataMediaType>("SELECT * FROM mediatypes WHERE EXISTS (SELECT 1 FROM media INNER JOIN nodemedia ON nodemedia.media_id = media.id INNER JOIN nodes ON nodes.id = nodemedia.node_id WHERE media.mediatype_id = mediatypes.id AND nodes.datasource_id = ?)")
+				 .setLong(id)
+				 .getStreamer(MediaTypeDAO.Parser.Inst.get()),
+			MediaTypeDAO.Writer.Inst.get(), null);
+	}
 
-				ids.add(media.getId());
-			}
-			stmt.executeBatch();
-			database.getConnection().setAutoCommit(true);
-			database.close();
-		}
-		catch (DatabaseException | SQLException | IOException e)
-		{
-			e.printStackTrace();
-		}
+	/**
+	 * Copies the {@link BuntataAttributeValue}s of the {@link BuntataNode}s of the given {@link BuntataDatasource} id.
+	 *
+	 * @param id The {@link BuntataDatasource} id
+	 */
+	private void copyAttributeData(long id)
+		throws DatabaseException, SQLException, IOException, InterruptedException
+	{
+		copy(new DatabaseObjectQuery<BuntataAttributeValue>("SELECT attributevalues.* FROM attributevalues INNER JOIN nodes ON nodes.id = attributevalues.node_id WHERE nodes.datasource_id = ?")
+				 .setLong(id)
+				 .getStreamer(AttributeValueDAO.Parser.Inst.get()),
+			AttributeValueDAO.Writer.Inst.get(), null);
+	}
 
-		return ids;
+	/**
+	 * Copies the {@link BuntataAttribute}s used by the {@link BuntataNode}s of the given {@link BuntataDatasource} id.
+	 *
+	 * @param id The {@link BuntataDatasource} id
+	 */
+	private void copyAttributes(long id)
+		throws DatabaseException, SQLException, IOException, InterruptedException
+	{
+		copy(new DatabaseObjectQuery<BuntataAttribute>("SELECT * FROM attributes WHERE EXISTS (SELECT 1 FROM attributevalues INNER JOIN nodes ON nodes.id = attributevalues.node_id WHERE attributevalues.attribute_id = attributes.id AND nodes.datasource_id = ?)")
+				 .setLong(id)
+				 .getStreamer(AttributeDAO.Parser.Inst.get()),
+			AttributeDAO.Writer.Inst.get(), null);
+	}
+
+	/**
+	 * Copies the {@link BuntataNode}s for the given {@link BuntataDatasource} id
+	 *
+	 * @param id The {@link BuntataDatasource} id
+	 */
+	private void copyNodes(long id)
+		throws DatabaseException, SQLException, IOException, InterruptedException
+	{
+		copy(new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes WHERE datasource_id = ?")
+				 .setLong(id)
+				 .getStreamer(NodeDAO.Parser.Inst.get()),
+			NodeDAO.Writer.Inst.get(), null);
 	}
 
 	/**
-	 * Copy the {@link BuntataMediaType}s for the given {@link BuntataNode} ids
+	 * Copies the {@link BuntataDatasource} with the given id
 	 *
-	 * @param nodeIds The {@link BuntataNode} ids
-	 * @return The ids of the copied {@link BuntataMediaType}s
+	 * @param id The {@link BuntataDatasource} id
 	 */
-	private List<Long> copyMediaTypes(List<Long> nodeIds)
+	private void copyDataSources(long id)
+		throws DatabaseException, IOException
 	{
-		List<Long> ids = new ArrayList<>();
+		BuntataDatasource ds = new DatabaseObjectQuery<BuntataDatasource>("SELECT * FROM datasources WHERE id = ?")
+			.setLong(id)
+			.run()
+			.getObject(DatasourceDAO.Parser.Inst.get());
 
-		if (nodeIds.size() < 1)
-			return ids;
+		if (ds == null)
+			throw new DatabaseException("Data source " + id + " not found");
 
-		try
-		{
-			DatabaseObjectQuery.DatabaseObjectStreamer<BuntataMediaType> streamer = new DatabaseObjectQuery<BuntataMediaType>("SELECT * FROM mediatypes WHERE EXISTS (SELECT 1 FROM media LEFT JOIN nodemedia ON nodemedia.media_id = media.id WHERE media.mediatype_id = mediatypes.id AND nodemedia.node_id IN (" + getFormattedPlaceholder(nodeIds.size()) + "))")
-				.setLongs(nodeIds)
-				.getStreamer(MediaTypeDAO.Parser.Inst.get());
-
-			BuntataMediaType type;
-			Database database = connectToSqlite();
-			database.getConnection().setAutoCommit(false);
-			DatabaseStatement stmt = MediaTypeDAO.Writer.Inst.get().getStatement(database);
-			while ((type = streamer.next()) != null)
-			{
-				MediaTypeDAO.Writer.Inst.get().writeBatched(type, stmt);
+		File icon = resolve(ds.getIcon());
 
-				ids.add(type.getId());
-			}
-			stmt.executeBatch();
-			database.getConnection().setAutoCommit(true);
-			database.close();
-		}
-		catch (DatabaseException | SQLException e)
+		// Now add the media file
+		if (icon != null && icon.exists() && icon.isFile())
 		{
-			e.printStackTrace();
+			addMediaFile(icon);
+			ds.setIcon(icon.getName());
 		}
 
-		return ids;
+		DatabaseStatement stmt = DatasourceDAO.Writer.Inst.get().getStatement(sqlite);
+		DatasourceDAO.Writer.Inst.get().write(ds, stmt);
+		phaseRows++;
 	}
 
 	/**
-	 * Copies the {@link BuntataAttributeValue}s for the given {@link BuntataNode} and {@link BuntataAttribute} ids
+	 * Resolves the given media path against the data directory.
 	 *
-	 * @param nodeIds      The {@link BuntataNode} ids
-	 * @param attributeIds The {@link BuntataAttribute} ids
+	 * @param path The media path
+	 * @return The {@link File} or <code>null</code> if the path is <code>null</code>
 	 */
-	private void copyAttributeData(List<Long> nodeIds, List<Long> attributeIds)
+	private File resolve(String path)
 	{
-		if (nodeIds.size() < 1 || attributeIds.size() < 1)
-			return;
+		if (path == null)
+			return null;
 
-		try
-		{
-			DatabaseObjectQuery.DatabaseObjectStreamer<BuntataAttributeValue> streamer = new DatabaseObjectQuery<BuntataAttributeValue>("SELECT * FROM attributevalues WHERE node_id IN (" + getFormattedPlaceholder(nodeIds.size()) + ") AND attribute_id IN (" + getFormattedPlaceholder(attributeIds.size()) + ")")
-				.setLongs(nodeIds)
-				.setLongs(attributeIds)
-				.getStreamer(AttributeValueDAO.Parser.Inst.get());
-
-			BuntataAttributeValue value;
-			Database database = connectToSqlite();
-			database.getConnection().setAutoCommit(false);
-			DatabaseStatement stmt = AttributeValueDAO.Writer.Inst.get().getStatement(database);
-			while ((value = streamer.next()) != null)
-			{
-				AttributeValueDAO.Writer.Inst.get().writeBatched(value, stmt);
-			}
-			stmt.executeBatch();
-			database.getConnection().setAutoCommit(true);
-			database.close();
-		}
-		catch (DatabaseException | SQLException e)
-		{
-			e.printStackTrace();
-		}
+		File file = new File(path);
+
+		if (dataDir == null || file.isAbsolute())
+			return file;
+		else
+			return new File(dataDir, path);
 	}
 
 	/**
-	 * Copies the {@link BuntataAttribute}s for the given {@link BuntataNode} ids
+	 * Adds the given media file to the export, placing it next to the target database if requested. Otherwise the file is referenced where it
+	 * is.
 	 *
-	 * @param nodeIds The {@link BuntataNode} ids
-	 * @return The ids of the copied {@link BuntataAttribute}s
+	 * @param source The media file
+	 * @throws IOException Thrown if copying fails
 	 */
-	private List<Long> copyAttributes(List<Long> nodeIds)
+	private void addMediaFile(File source)
+		throws IOException
 	{
-		List<Long> ids = new ArrayList<>();
-
-		if (nodeIds.size() < 1)
-			return ids;
-
-		try
+		if (copyMedia)
 		{
-			DatabaseObjectQuery.DatabaseObjectStreamer<BuntataAttribute> streamer = new DatabaseObjectQuery<BuntataAttribute>("SELECT * FROM attributes WHERE EXISTS (SELECT 1 FROM attributevalues WHERE attributevalues.attribute_id = attributes.id AND attributevalues.node_id IN (" + getFormattedPlaceholder(nodeIds.size()) + "))")
-				.setLongs(nodeIds)
-				.getStreamer(AttributeDAO.Parser.Inst.get());
-
-			BuntataAttribute attribute;
-			Database database = connectToSqlite();
-			database.getConnection().setAutoCommit(false);
-			DatabaseStatement stmt = AttributeDAO.Writer.Inst.get().getStatement(database);
-			while ((attribute = streamer.next()) != null)
-			{
-				AttributeDAO.Writer.Inst.get().writeBatched(attribute, stmt);
-
-				ids.add(attribute.getId());
-			}
-			stmt.executeBatch();
-			database.getConnection().setAutoCommit(true);
-			database.close();
+			File copy = new File(folder, source.getName());
+			stage(source, copy);
+			mediaFiles.put(source.getName(), copy);
 		}
-		catch (DatabaseException | SQLException e)
+		else
 		{
-			e.printStackTrace();
+			mediaFiles.put(source.getName(), source);
 		}
-
-		return ids;
 	}
 
 	/**
-	 * Copies the {@link BuntataNode}s for the given {@link BuntataDatasource} id
+	 * Places the source file at the target location. A hard link is created if possible, so that the content doesn't have to be duplicated.
+	 * The file is only copied if the file system doesn't support hard links or the two locations are on different file systems.
 	 *
-	 * @param id The {@link BuntataDatasource} id
-	 * @return The ids of the copied {@link BuntataNode}s
+	 * @param source The source file
+	 * @param target The target location
+	 * @throws IOException Thrown if copying fails
 	 */
-	private List<Long> copyNodes(long id)
+	private static void stage(File source, File target)
+		throws IOException
 	{
-		List<Long> ids = new ArrayList<>();
+		Files.deleteIfExists(target.toPath());
 
 		try
 		{
-			DatabaseObjectQuery.DatabaseObjectStreamer<BuntataNode> streamer = new DatabaseObjectQuery<BuntataNode>("SELECT * FROM nodes WHERE datasource_id = ?")
-				.setLong(id)
-				.getStreamer(NodeDAO.Parser.Inst.get());
-
-			BuntataNode node;
-			Database database = connectToSqlite();
-			database.getConnection().setAutoCommit(false);
-			DatabaseStatement stmt = NodeDAO.Writer.Inst.get().getStatement(database);
-			while ((node = streamer.next()) != null)
-			{
-				NodeDAO.Writer.Inst.get().writeBatched(node, stmt);
-
-				ids.add(node.getId());
-			}
-			stmt.executeBatch();
-			database.getConnection().setAutoCommit(true);
-			database.close();
+			Files.createLink(target.toPath(), source.toPath());
 		}
-		catch (DatabaseException | SQLException e)
+		catch (UnsupportedOperationException | IOException e)
 		{
-			e.printStackTrace();
+			Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
 		}
+	}
 
-		return ids;
+	private Database connectToSqlite()
+		throws DatabaseException
+	{
+		return Database.connect(Database.DatabaseType.SQLITE, target.getAbsolutePath(), null, null);
 	}
 
 	/**
-	 * Copies the {@link BuntataDatasource} with the given id
-	 *
-	 * @param id The {@link BuntataDatasource} id
+	 * A step of the conversion.
 	 */
-	private void copyDataSources(long id)
+	private interface Step
 	{
-		try
-		{
-			BuntataDatasource ds = new DatabaseObjectQuery<BuntataDatasource>("SELECT * FROM datasources WHERE id = ?")
-				.setLong(id)
-				.run()
-				.getObject(DatasourceDAO.Parser.Inst.get());
+		void run()
+			throws DatabaseException, SQLException, IOException, InterruptedException;
+	}
 
-			File icon = null;
+	/**
+	 * The duration and number of written rows of a single step of the conversion, e.g. copying one table.
+	 */
+	public static class Phase
+	{
+		private final String name;
+		private final long   duration;
+		private final long   rows;
 
-			if (ds.getIcon() != null)
-				icon = new File(ds.getIcon());
+		public Phase(String name, long duration, long rows)
+		{
+			this.name = name;
+			this.duration = duration;
+			this.rows = rows;
+		}
 
-			// Now copy the media file
-			if (icon != null && icon.exists() && icon.isFile())
-			{
-				try
-				{
-					Files.copy(icon.toPath(), new File(folder, icon.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
-					ds.setIcon(icon.getName());
-				}
-				catch (IOException e)
-				{
-					e.printStackTrace();
-				}
-			}
+		public String getName()
+		{
+			return name;
+		}
 
-			Database database = connectToSqlite();
-			DatabaseStatement stmt = DatasourceDAO.Writer.Inst.get().getStatement(database);
-			DatasourceDAO.Writer.Inst.get().write(ds, stmt);
-			database.close();
+		/**
+		 * @return The duration in milliseconds
+		 */
+		public long getDuration()
+		{
+			return duration;
 		}
-		catch (DatabaseException e)
+
+		public long getRows()
 		{
-			e.printStackTrace();
+			return rows;
 		}
 	}
 
-	private Database connectToSqlite()
-		throws DatabaseException
+	/**
+	 * Gets called for each object that is copied before it is written to the SQLite database.
+	 */
+	private interface RowHandler<T>
 	{
-		return Database.connect(Database.DatabaseType.SQLITE, target.getAbsolutePath(), null, null);
+		void handle(T object)
+			throws DatabaseException, IOException;
 	}
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Information & Computational Sciences, The James Hutton Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jhi.buntata.sqlite;
+
+import java.io.*;
+import java.nio.file.*;
+
+import jhi.database.server.*;
+import jhi.database.shared.exception.*;
+
+/**
+ * {@link SqLiteDelta} computes the difference between two exported SQLite databases of the same data source. The delta database has the same
+ * schema as the exports, but only contains the rows that have been added or changed. The ids of removed rows are listed in the additional
+ * {@link #TABLE_DELETIONS} table.
+ *
+ * @author Sebastian Raubach
+ */
+public class SqLiteDelta
+{
+	/** The table containing the <code>table_name</code> and <code>id</code> of all removed rows */
+	public static final String TABLE_DELETIONS = "deletions";
+
+	/** The tables the converter exports, all of them have an <code>id</code> primary key */
+	private static final String[] TABLES = {"datasources", "nodes", "attributes", "attributevalues", "mediatypes", "media", "nodemedia", "relationships", "similarities"};
+
+	/**
+	 * Writes the delta between the two given databases to the target database.
+	 *
+	 * @param previous The previously exported database
+	 * @param current  The currently exported database
+	 * @param target   The target database
+	 * @throws IOException Thrown if copying the database fails or the delta can't be computed
+	 */
+	public static void create(File previous, File current, File target)
+		throws IOException
+	{
+		// Start from the current database and remove everything that hasn't changed
+		Files.copy(current.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		try (Database sqlite = Database.connect(Database.DatabaseType.SQLITE, target.getAbsolutePath(), null, null))
+		{
+			DatabaseStatement stmt = sqlite.prepareStatement("ATTACH DATABASE ? AS previous");
+			stmt.setString(1, previous.getAbsolutePath());
+			stmt.executeUpdate();
+
+			sqlite.prepareStatement("CREATE TABLE " + TABLE_DELETIONS + " (table_name TEXT NOT NULL, id INTEGER NOT NULL)").executeUpdate();
+
+			for (String table : TABLES)
+			{
+				sqlite.prepareStatement("INSERT INTO " + TABLE_DELETIONS + " (table_name, id) SELECT '" + table + "', id FROM previous." + table + " WHERE id NOT IN (SELECT id FROM main." + table + ")").executeUpdate();
+				sqlite.prepareStatement("DELETE FROM main." + table + " WHERE id IN (SELECT id FROM (SELECT * FROM main." + table + " INTERSECT SELECT * FROM previous." + table + "))").executeUpdate();
+			}
+
+			sqlite.prepareStatement("DETACH DATABASE previous").executeUpdate();
+			sqlite.prepareStatement("VACUUM").executeUpdate();
+		}
+		catch (DatabaseException e)
+		{
+			throw new IOException(e);
+		}
+	}
+}
@@ -49,12 +49,36 @@ public interface ApiProvider
 	@GET("node/{id}/media")
 	Call<List<BuntataMedia>> getMediaForNode(@Path("id") String nodeId);
 
+	@PUT("node/{id}/attributes")
+	Call<ResponseBody> putNodeAttributes(@Path("id") String nodeId, @Body Map<String, Object> attributes);
+
+	@PUT("attributevalue")
+	Call<ResponseBody> putAttributeValue(@Body BuntataAttributeValue value);
+
 	@POST("media")
 	Call<ResponseBody> postMedia(@Body BuntataMedia media);
 
 	@PUT("media/{id}")
 	Call<ResponseBody> putMedia(@Path("id") String id, @Body BuntataMedia media);
 
+	@POST("bulk/node")
+	Call<List<Long>> postNodes(@Body List<BuntataNode> nodes);
+
+	@POST("bulk/media")
+	Call<List<Long>> postMedia(@Body List<BuntataMedia> media);
+
+	@POST("bulk/nodemedia")
+	Call<List<Long>> postNodeMedia(@Body List<BuntataNodeMedia> links);
+
+	@POST("bulk/relationship")
+	Call<List<Long>> postRelationships(@Body List<BuntataRelationship> relationships);
+
+	@POST("bulk/attributevalue")
+	Call<List<Long>> postAttributeValues(@Body List<BuntataAttributeValue> values);
+
+	@POST("bulk/similarity")
+	Call<Map<String, Integer>> postSimilarities(@Body List<BuntataSimilarity> similarities);
+
 	@POST("token")
 	Call<BuntataToken> token(@Body BuntataUser credentials);
 }
@@ -22,6 +22,8 @@ import java.io.*;
 import java.util.*;
 
 import jhi.buntata.resource.*;
+import jhi.database.server.query.*;
+import jhi.database.shared.exception.*;
 import okhttp3.*;
 import retrofit2.Response;
 import retrofit2.*;
@@ -37,6 +39,7 @@ public class ApiTest extends DatabaseTest
 	private String                    bearerToken;
 	private OkHttpClient              client;
 	private AuthenticationInterceptor interceptor;
+	private Long                      bulkDatasourceId;
 
 	public void prepareProvider(OkHttpClient client)
 	{
@@ -187,6 +190,332 @@ public class ApiTest extends DatabaseTest
 		assert response.body().size() == 1;
 	}
 
+	@Test
+	public void postNodesInOrder()
+		throws IOException, DatabaseException
+	{
+		prepareClient(true);
+		prepareProvider(client);
+
+		List<Long> ids = postNodes("Bulk node 1", "Bulk node 2", "Bulk node 3");
+
+		assert getString("SELECT name AS value FROM nodes WHERE id = ?", ids.get(0)).equals("Bulk node 1");
+		assert getString("SELECT name AS value FROM nodes WHERE id = ?", ids.get(1)).equals("Bulk node 2");
+		assert getString("SELECT name AS value FROM nodes WHERE id = ?", ids.get(2)).equals("Bulk node 3");
+	}
+
+	@Test
+	public void postNodesWithBadRow()
+		throws IOException, DatabaseException
+	{
+		prepareClient(true);
+		prepareProvider(client);
+
+		List<BuntataNode> nodes = new ArrayList<>();
+		nodes.add(new BuntataNode(null, new Date(), new Date()).setName("Rollback node 1").setDatasourceId(getBulkDatasourceId()));
+		// The data source doesn't exist
+		nodes.add(new BuntataNode(null, new Date(), new Date()).setName("Rollback node 2").setDatasourceId(999999L));
+		nodes.add(new BuntataNode(null, new Date(), new Date()).setName("Rollback node 3").setDatasourceId(getBulkDatasourceId()));
+
+		Response<List<Long>> response = provider.postNodes(nodes).execute();
+
+		assert !response.isSuccessful();
+		assert getLong("SELECT COUNT(*) AS value FROM nodes WHERE name LIKE 'Rollback node%'") == 0;
+	}
+
+	@Test
+	public void postMediaInOrder()
+		throws IOException, DatabaseException
+	{
+		prepareClient(true);
+		prepareProvider(client);
+
+		List<Long> ids = postMedia("Bulk media 1", "Bulk media 2");
+
+		assert getString("SELECT name AS value FROM media WHERE id = ?", ids.get(0)).equals("Bulk media 1");
+		assert getString("SELECT name AS value FROM media WHERE id = ?", ids.get(1)).equals("Bulk media 2");
+	}
+
+	@Test
+	public void postNodeMediaInOrder()
+		throws IOException, DatabaseException
+	{
+		prepareClient(true);
+		prepareProvider(client);
+
+		List<Long> nodeIds = postNodes("Node media node 1", "Node media node 2");
+		List<Long> mediaIds = postMedia("Node media media 1", "Node media media 2");
+
+		List<BuntataNodeMedia> links = new ArrayList<>();
+		links.add(new BuntataNodeMedia(null, new Date(), new Date()).setNodeId(nodeIds.get(0)).setMediaId(mediaIds.get(1)));
+		links.add(new BuntataNodeMedia(null, new Date(), new Date()).setNodeId(nodeIds.get(1)).setMediaId(mediaIds.get(0)));
+
+		Response<List<Long>> response = provider.postNodeMedia(links).execute();
+
+		assert response.isSuccessful();
+		assert response.body() != null;
+		assert response.body().size() == 2;
+		assert getLong("SELECT media_id AS value FROM nodemedia WHERE id = ?", response.body().get(0)).equals(mediaIds.get(1));
+		assert getLong("SELECT media_id AS value FROM nodemedia WHERE id = ?", response.body().get(1)).equals(mediaIds.get(0));
+	}
+
+	@Test
+	public void postRelationshipsInOrder()
+		throws IOException, DatabaseException
+	{
+		prepareClient(true);
+		prepareProvider(client);
+
+		List<Long> nodeIds = postNodes("Relationship parent", "Relationship child 1", "Relationship child 2");
+
+		Response<List<Long>> response = provider.postRelationships(Arrays.asList(
+			new BuntataRelationship(null, new Date(), new Date(), nodeIds.get(0), nodeIds.get(2)),
+			new BuntataRelationship(null, new Date(), new Date(), nodeIds.get(0), nodeIds.get(1))
+		)).execute();
+
+		assert response.isSuccessful();
+		assert response.body() != null;
+		assert response.body().size() == 2;
+		assert getLong("SELECT child AS value FROM relationships WHERE id = ?", response.body().get(0)).equals(nodeIds.get(2));
+		assert getLong("SELECT child AS value FROM relationships WHERE id = ?", response.body().get(1)).equals(nodeIds.get(1));
+	}
+
+	@Test
+	public void postDuplicateRelationships()
+		throws IOException, DatabaseException
+	{
+		prepareClient(true);
+		prepareProvider(client);
+
+		List<Long> nodeIds = postNodes("Duplicate parent", "Duplicate child 1", "Duplicate child 2");
+
+		Response<List<Long>> response = provider.postRelationships(Collections.singletonList(
+			new BuntataRelationship(null, new Date(), new Date(), nodeIds.get(0), nodeIds.get(1))
+		)).execute();
+
+		assert response.isSuccessful();
+
+		// Already exists, the new one must not be written either
+		response = provider.postRelationships(Arrays.asList(
+			new BuntataRelationship(null, new Date(), new Date(), nodeIds.get(0), nodeIds.get(2)),
+			new BuntataRelationship(null, new Date(), new Date(), nodeIds.get(0), nodeIds.get(1))
+		)).execute();
+
+		assert response.code() == 409;
+
+		// Twice within the request
+		response = provider.postRelationships(Arrays.asList(
+			new BuntataRelationship(null, new Date(), new Date(), nodeIds.get(1), nodeIds.get(2)),
+			new BuntataRelationship(null, new Date(), new Date(), nodeIds.get(1), nodeIds.get(2))
+		)).execute();
+
+		assert response.code() == 409;
+		assert getLong("SELECT COUNT(*) AS value FROM relationships WHERE parent IN (?, ?)", nodeIds.get(0), nodeIds.get(1)) == 1;
+	}
+
+	@Test
+	public void postAttributeValuesInOrder()
+		throws IOException, DatabaseException
+	{
+		prepareClient(true);
+		prepareProvider(client);
+
+		List<Long> nodeIds = postNodes("Attribute node 1", "Attribute node 2");
+
+		// The names only differ in case, they're the same new attribute
+		Response<List<Long>> response = provider.postAttributeValues(Arrays.asList(
+			new BuntataAttributeValue(null, new Date(), new Date()).setNodeId(nodeIds.get(1)).setValue("blue").setAttribute(new BuntataAttribute().setName("Bulk colour")),
+			new BuntataAttributeValue(null, new Date(), new Date()).setNodeId(nodeIds.get(0)).setValue("red").setAttribute(new BuntataAttribute().setName("bulk COLOUR"))
+		)).execute();
+
+		assert response.isSuccessful();
+		assert response.body() != null;
+		assert response.body().size() == 2;
+		assert getString("SELECT value FROM attributevalues WHERE id = ?", response.body().get(0)).equals("blue");
+		assert getString("SELECT value FROM attributevalues WHERE id = ?", response.body().get(1)).equals("red");
+		assert getLong("SELECT COUNT(*) AS value FROM attributes WHERE name = 'Bulk colour'") == 1;
+
+		// Twice for the same node
+		response = provider.postAttributeValues(Arrays.asList(
+			new BuntataAttributeValue(null, new Date(), new Date()).setNodeId(nodeIds.get(0)).setValue("1").setAttribute(new BuntataAttribute().setName("Bulk size")),
+			new BuntataAttributeValue(null, new Date(), new Date()).setNodeId(nodeIds.get(0)).setValue("2").setAttribute(new BuntataAttribute().setName("bulk size"))
+		)).execute();
+
+		assert response.code() == 409;
+		assert getLong("SELECT COUNT(*) AS value FROM attributes WHERE name = 'Bulk size'") == 0;
+	}
+
+	@Test
+	public void putAttributeValueTwice()
+		throws IOException
+	{
+		prepareClient(true);
+		prepareProvider(client);
+
+		Long nodeId = postNodes("Upsert node").get(0);
+
+		BuntataAttributeValue value = new BuntataAttributeValue(null, new Date(), new Date())
+			.setNodeId(nodeId)
+			.setValue("red")
+			.setAttribute(new BuntataAttribute().setName("Upsert colour"));
+
+		Response<ResponseBody> first = provider.putAttributeValue(value).execute();
+
+		assert first.isSuccessful();
+		assert first.body() != null;
+		String firstId = first.body().string();
+		assert isLong(firstId);
+
+		// Nothing changes, the same row is returned
+		Response<ResponseBody> second = provider.putAttributeValue(value).execute();
+
+		assert second.isSuccessful();
+		assert second.body() != null;
+		assert second.body().string().equals(firstId);
+	}
+
+	@Test
+	public void putNodeAttributes()
+		throws IOException, DatabaseException
+	{
+		prepareClient(true);
+		prepareProvider(client);
+
+		Long nodeId = postNodes("Node attributes node").get(0);
+
+		Response<ResponseBody> response = provider.putAttributeValue(new BuntataAttributeValue(null, new Date(), new Date())
+			.setNodeId(nodeId)
+			.setValue("small")
+			.setAttribute(new BuntataAttribute().setName("Existing attribute"))).execute();
+
+		assert response.isSuccessful();
+
+		Map<String, Object> attributes = new LinkedHashMap<>();
+		attributes.put("Existing attribute", "large");
+		attributes.put("New attribute", 5);
+
+		response = provider.putNodeAttributes(Long.toString(nodeId), attributes).execute();
+
+		assert response.isSuccessful();
+		assert response.code() == 200;
+
+		// Exactly one value per attribute, the existing one has been updated
+		assert getLong("SELECT COUNT(*) AS value FROM attributevalues WHERE node_id = ?", nodeId) == 2;
+		assert getLong("SELECT COUNT(DISTINCT attribute_id) AS value FROM attributevalues WHERE node_id = ?", nodeId) == 2;
+		assert getString("SELECT attributevalues.value FROM attributevalues INNER JOIN attributes ON attributes.id = attributevalues.attribute_id WHERE attributes.name = 'Existing attribute' AND attributevalues.node_id = ?", nodeId).equals("large");
+		assert getString("SELECT attributevalues.value FROM attributevalues INNER JOIN attributes ON attributes.id = attributevalues.attribute_id WHERE attributes.name = 'New attribute' AND attributevalues.node_id = ?", nodeId).equals("5");
+	}
+
+	@Test
+	public void postSimilaritiesWithDuplicates()
+		throws IOException, DatabaseException
+	{
+		prepareClient(true);
+		prepareProvider(client);
+
+		List<Long> nodeIds = postNodes("Similar node 1", "Similar node 2", "Similar node 3");
+
+		Response<Map<String, Integer>> response = provider.postSimilarities(Collections.singletonList(
+			new BuntataSimilarity(null, new Date(), new Date()).setNodeAId(nodeIds.get(0)).setNodeBId(nodeIds.get(1))
+		)).execute();
+
+		assert response.isSuccessful();
+		assert response.body() != null;
+		assert response.body().get("inserted") == 1;
+		assert response.body().get("skipped") == 0;
+
+		// One new pair, the same pair again, a pair that already exists and a pair with a node that doesn't exist
+		response = provider.postSimilarities(Arrays.asList(
+			new BuntataSimilarity(null, new Date(), new Date()).setNodeAId(nodeIds.get(0)).setNodeBId(nodeIds.get(2)),
+			new BuntataSimilarity(null, new Date(), new Date()).setNodeAId(nodeIds.get(0)).setNodeBId(nodeIds.get(2)),
+			new BuntataSimilarity(null, new Date(), new Date()).setNodeAId(nodeIds.get(0)).setNodeBId(nodeIds.get(1)),
+			new BuntataSimilarity(null, new Date(), new Date()).setNodeAId(nodeIds.get(0)).setNodeBId(999999L)
+		)).execute();
+
+		assert response.isSuccessful();
+		assert response.body() != null;
+		assert response.body().get("inserted") == 1;
+		assert response.body().get("skipped") == 3;
+		assert getLong("SELECT COUNT(*) AS value FROM similarities WHERE node_a_id = ?", nodeIds.get(0)) == 2;
+	}
+
+	/**
+	 * Returns the id of an invisible data source for the write tests, so that their nodes don't show up in {@link #checkDatasources()}.
+	 */
+	private Long getBulkDatasourceId()
+		throws IOException
+	{
+		if (bulkDatasourceId == null)
+		{
+			BuntataDatasource datasource = new BuntataDatasource(100L, new Date(), new Date())
+				.setName("Bulk datasource")
+				.setContact("Sebastian Raubach")
+				.setDataProvider("The James Hutton Institute")
+				.setShowKeyName(true)
+				.setShowSingleChild(false)
+				.setVisibility(false);
+
+			Response<ResponseBody> response = provider.putDatasource("100", datasource).execute();
+
+			assert response.isSuccessful();
+			bulkDatasourceId = 100L;
+		}
+
+		return bulkDatasourceId;
+	}
+
+	private List<Long> postNodes(String... names)
+		throws IOException
+	{
+		List<BuntataNode> nodes = new ArrayList<>();
+
+		for (String name : names)
+			nodes.add(new BuntataNode(null, new Date(), new Date()).setName(name).setDatasourceId(getBulkDatasourceId()));
+
+		Response<List<Long>> response = provider.postNodes(nodes).execute();
+
+		assert response.isSuccessful();
+		assert response.body() != null;
+		assert response.body().size() == names.length;
+
+		return response.body();
+	}
+
+	private List<Long> postMedia(String... names)
+		throws IOException
+	{
+		List<BuntataMedia> media = new ArrayList<>();
+
+		for (String name : names)
+			media.add(new BuntataMedia(null, new Date(), new Date()).setName(name).setMediaTypeId(1L));
+
+		Response<List<Long>> response = provider.postMedia(media).execute();
+
+		assert response.isSuccessful();
+		assert response.body() != null;
+		assert response.body().size() == names.length;
+
+		return response.body();
+	}
+
+	private static String getString(String query, Long... ids)
+		throws DatabaseException
+	{
+		return new ValueQuery(query)
+			.setLongs(ids)
+			.run("value")
+			.getString();
+	}
+
+	private static Long getLong(String query, Long... ids)
+		throws DatabaseException
+	{
+		return new ValueQuery(query)
+			.setLongs(ids)
+			.run("value")
+			.getLong();
+	}
+
 	private boolean isLong(String value)
 	{
 		try